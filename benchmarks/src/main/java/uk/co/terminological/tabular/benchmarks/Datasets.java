@@ -0,0 +1,217 @@
+package uk.co.terminological.tabular.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import uk.co.terminological.tabular.Excel;
+
+/**
+ * Generates the files read by the benchmarks. Each dataset has a header row of labels, an identifier in the
+ * first column and the given number of cells in total. The values are deterministic, so a file generated
+ * by an earlier run is reused from the temporary directory.
+ * @author terminological
+ *
+ */
+public class Datasets {
+
+	public static final String SHEET = "data";
+
+	public static enum Shape {
+		NARROW(5),
+		WIDE(200);
+
+		final int columns;
+
+		Shape(int columns) {
+			this.columns = columns;
+		}
+
+		public int rows(int cells) {
+			return Math.max(1, cells / columns);
+		}
+	}
+
+	public static enum Values {
+		NUMERIC,
+		TEXT,
+		/** Excel only, cells are formulas of the cell to their left, with their results cached in the file */
+		FORMULA
+	}
+
+	private static final File DIR = new File(System.getProperty("java.io.tmpdir"), "fluentsheet-benchmarks");
+
+	/**
+	 * A csv file. Quoted files enclose every field in quotes, and text values include separators and quotes.
+	 */
+	public static File delimited(Shape shape, Values values, boolean quoted, int cells) throws IOException {
+		if (values == Values.FORMULA) throw new IllegalArgumentException("Delimited files do not have formulas");
+		File file = file(shape, values, cells, quoted ? "quoted.csv" : "csv");
+		if (file.exists()) return file;
+		File tmp = temporary(file);
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8), 1<<16)) {
+			for (List<String> row: iterable(rows(shape, values, cells, quoted))) {
+				for (int i=0; i<row.size(); i++) {
+					if (i > 0) out.write(',');
+					if (quoted) {
+						out.write('"');
+						out.write(row.get(i).replace("\"", "\"\""));
+						out.write('"');
+					} else {
+						out.write(row.get(i));
+					}
+				}
+				out.write('\n');
+			}
+		}
+		return rename(tmp, file);
+	}
+
+	/**
+	 * An xlsx file with a single sheet. Numeric and text sheets are written with the streaming writer, and
+	 * formula sheets with the workbook object model so that the results of the formulas can be cached.
+	 */
+	public static File xlsx(Shape shape, Values values, int cells) throws IOException {
+		File file = file(shape, values, cells, "xlsx");
+		if (file.exists()) return file;
+		File tmp = temporary(file);
+		if (values == Values.FORMULA) {
+			writeFormulas(shape, cells, tmp);
+		} else {
+			Excel out = Excel.createStreaming().columnWidths(Excel.ColumnWidths.none());
+			try {
+				out.addSheet(SHEET, typedRows(shape, values, cells));
+				out.write(tmp);
+			} finally {
+				out.close();
+			}
+		}
+		return rename(tmp, file);
+	}
+
+	/**
+	 * The rows of a dataset as they would be written to a sheet, with numbers as doubles
+	 */
+	public static Iterator<List<Object>> typedRows(Shape shape, Values values, int cells) {
+		Iterator<List<String>> rows = rows(shape, values, cells, false);
+		return new Iterator<List<Object>>() {
+			boolean header = true;
+
+			public boolean hasNext() {
+				return rows.hasNext();
+			}
+
+			public List<Object> next() {
+				List<String> row = rows.next();
+				List<Object> out = new ArrayList<>(row.size());
+				for (int i=0; i<row.size(); i++) {
+					out.add(header || i == 0 || values != Values.NUMERIC ? row.get(i) : (Object) Double.valueOf(row.get(i)));
+				}
+				header = false;
+				return out;
+			}
+		};
+	}
+
+	/**
+	 * The header row and rows of string values of a dataset
+	 */
+	public static Iterator<List<String>> rows(Shape shape, Values values, int cells, boolean quoted) {
+		int rows = shape.rows(cells);
+		return new Iterator<List<String>>() {
+			int row = -1;
+
+			public boolean hasNext() {
+				return row < rows;
+			}
+
+			public List<String> next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				List<String> out = new ArrayList<>(shape.columns);
+				if (row == -1) {
+					out.add("id");
+					for (int c=1; c<shape.columns; c++) out.add("c"+c);
+				} else {
+					out.add("r"+row);
+					for (int c=1; c<shape.columns; c++) out.add(value(values, quoted, row, c));
+				}
+				row++;
+				return out;
+			}
+		};
+	}
+
+	private static String value(Values values, boolean quoted, int row, int column) {
+		int n = (row*31 + column*17) % 1000;
+		switch (values) {
+		case NUMERIC: return Double.toString(n / 8.0);
+		default: return quoted ? "text, \"value\" "+n : "text value "+n;
+		}
+	}
+
+	private static void writeFormulas(Shape shape, int cells, File file) throws IOException {
+		XSSFWorkbook workbook = new XSSFWorkbook();
+		Sheet sheet = workbook.createSheet(SHEET);
+		FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+		Row header = sheet.createRow(0);
+		header.createCell(0).setCellValue("id");
+		for (int c=1; c<shape.columns; c++) header.createCell(c).setCellValue("c"+c);
+		for (int r=1; r<=shape.rows(cells); r++) {
+			Row row = sheet.createRow(r);
+			row.createCell(0).setCellValue("r"+(r-1));
+			row.createCell(1).setCellValue(r % 1000 / 8.0);
+			for (int c=2; c<shape.columns; c++) {
+				Cell cell = row.createCell(c);
+				//the cell to the left, e.g. B2*2+1 in C2
+				cell.setCellFormula(columnName(c-1)+(r+1)+"*2+1");
+				evaluator.evaluateFormulaCell(cell);
+			}
+		}
+		try (OutputStream out = new FileOutputStream(file)) {
+			workbook.write(out);
+		}
+	}
+
+	//the letters of a zero based column index
+	private static String columnName(int col) {
+		StringBuilder out = new StringBuilder();
+		for (int i = col+1; i > 0; i = (i-1)/26) {
+			out.insert(0, (char) ('A' + (i-1)%26));
+		}
+		return out.toString();
+	}
+
+	private static File file(Shape shape, Values values, int cells, String extension) {
+		DIR.mkdirs();
+		return new File(DIR, (shape+"-"+values+"-"+cells).toLowerCase()+"."+extension);
+	}
+
+	//written next to the file and renamed when complete, so an interrupted run does not leave a partial file
+	private static File temporary(File file) {
+		return new File(file.getParentFile(), file.getName()+".tmp");
+	}
+
+	private static File rename(File tmp, File file) throws IOException {
+		if (!tmp.renameTo(file)) throw new IOException("Could not create "+file);
+		return file;
+	}
+
+	private static <X> Iterable<X> iterable(Iterator<X> iterator) {
+		return () -> iterator;
+	}
+}
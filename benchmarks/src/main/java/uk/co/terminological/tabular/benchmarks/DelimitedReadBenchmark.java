@@ -0,0 +1,134 @@
+package uk.co.terminological.tabular.benchmarks;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.co.terminological.tabular.ColumnType;
+import uk.co.terminological.tabular.Delimited;
+import uk.co.terminological.tabular.TypedRow;
+import uk.co.terminological.tabular.benchmarks.Datasets.Shape;
+import uk.co.terminological.tabular.benchmarks.Datasets.Values;
+
+/**
+ * Reads whole csv files through each of the read methods of {@link Delimited}, with each parsing engine.
+ * @author terminological
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class DelimitedReadBenchmark {
+
+	public static enum Engine {
+		DEFAULT,
+		MAPPED,
+		PARALLEL,
+		PIPELINED
+	}
+
+	@Param({"NARROW", "WIDE"})
+	public Shape shape;
+
+	@Param({"NUMERIC", "TEXT"})
+	public Values values;
+
+	@Param({"false", "true"})
+	public boolean quoted;
+
+	@Param({"10000", "1000000", "10000000"})
+	public int cells;
+
+	@Param({"DEFAULT", "MAPPED", "PARALLEL", "PIPELINED"})
+	public Engine engine;
+
+	private File file;
+
+	@Setup
+	public void setup() throws Exception {
+		file = Datasets.delimited(shape, values, quoted, cells);
+	}
+
+	private Delimited.Content content() throws Exception {
+		Delimited.Format format = Delimited.fromFile(file, StandardCharsets.UTF_8);
+		switch (engine) {
+		case MAPPED: format.memoryMapped(); break;
+		case PARALLEL: format.parallel(4); break;
+		case PIPELINED: format.pipelined(2); break;
+		default: break;
+		}
+		return format.csv();
+	}
+
+	@Benchmark
+	public Object getContents() throws Exception {
+		return content().begin().getContents();
+	}
+
+	@Benchmark
+	public Object getContentsByRow() throws Exception {
+		return content().begin().getContentsByRow();
+	}
+
+	@Benchmark
+	public Object getTable() throws Exception {
+		return content().begin().getTable();
+	}
+
+	@Benchmark
+	public void streamContents(Blackhole bh) throws Exception {
+		try (Stream<?> s = content().begin().streamContents()) {
+			s.forEach(bh::consume);
+		}
+	}
+
+	@Benchmark
+	public void streamRows(Blackhole bh) throws Exception {
+		try (Stream<?> s = content().begin().streamRows()) {
+			s.forEach(bh::consume);
+		}
+	}
+
+	@Benchmark
+	public long visitRows(Blackhole bh) throws Exception {
+		return content().begin().visitRows((n, fields) -> {
+			for (int i=0; i<fields.size(); i++) bh.consume(fields.get(i));
+			return true;
+		});
+	}
+
+	/**
+	 * Every column after the identifier as a double, or a string for text datasets
+	 */
+	@Benchmark
+	public void streamTypedRows(Blackhole bh) throws Exception {
+		Delimited.Content content = content();
+		ColumnType type = values == Values.NUMERIC ? ColumnType.DOUBLE : ColumnType.STRING;
+		for (int c=1; c<shape.columns; c++) content.column("c"+c, type);
+		try (Stream<TypedRow> s = content.begin().streamTypedRows()) {
+			s.forEach(row -> {
+				for (int i=0; i<row.size(); i++) {
+					if (type == ColumnType.DOUBLE) bh.consume(row.getDouble(i));
+					else bh.consume(row.getString(i));
+				}
+			});
+		}
+	}
+}
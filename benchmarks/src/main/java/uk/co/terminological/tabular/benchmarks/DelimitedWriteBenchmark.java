@@ -0,0 +1,101 @@
+package uk.co.terminological.tabular.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.terminological.tabular.DelimitedWriter;
+import uk.co.terminological.tabular.benchmarks.Datasets.Shape;
+import uk.co.terminological.tabular.benchmarks.Datasets.Values;
+
+/**
+ * Writes a csv file with {@link DelimitedWriter}, compared with joining and quoting each row onto a
+ * {@link BufferedWriter}. The rows are generated before the benchmark so only writing is measured. Quoted
+ * datasets have text values that must be enclosed.
+ * @author terminological
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class DelimitedWriteBenchmark {
+
+	@Param({"NARROW", "WIDE"})
+	public Shape shape;
+
+	@Param({"NUMERIC", "TEXT"})
+	public Values values;
+
+	@Param({"false", "true"})
+	public boolean quoted;
+
+	@Param({"10000", "1000000"})
+	public int cells;
+
+	private List<List<String>> rows;
+	private File file;
+
+	@Setup
+	public void setup() throws Exception {
+		rows = new ArrayList<>();
+		Iterator<List<String>> generated = Datasets.rows(shape, values, cells, quoted);
+		while (generated.hasNext()) rows.add(generated.next());
+		file = File.createTempFile("benchmark", ".csv");
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long delimitedWriter() throws Exception {
+		try (DelimitedWriter out = DelimitedWriter.toFile(file, StandardCharsets.UTF_8).csv()) {
+			out.write(rows.iterator());
+		}
+		return file.length();
+	}
+
+	@Benchmark
+	public long bufferedWriter() throws Exception {
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1<<16)) {
+			for (List<String> row: rows) {
+				StringBuilder line = new StringBuilder();
+				for (int i=0; i<row.size(); i++) {
+					if (i > 0) line.append(',');
+					String value = row.get(i);
+					if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+						line.append('"').append(value.replace("\"", "\"\"")).append('"');
+					} else {
+						line.append(value);
+					}
+				}
+				out.write(line.append('\n').toString());
+			}
+		}
+		return file.length();
+	}
+}
@@ -0,0 +1,88 @@
+package uk.co.terminological.tabular.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.co.terminological.tabular.Excel;
+import uk.co.terminological.tabular.ExcelSheet;
+import uk.co.terminological.tabular.benchmarks.Datasets.Shape;
+import uk.co.terminological.tabular.benchmarks.Datasets.Values;
+
+/**
+ * Opens an xlsx file with the workbook object model ({@link Excel#fromFile(File)}) and reads its sheet through
+ * each of the read methods of {@link ExcelSheet}. Each operation includes opening the file. The object model
+ * needs around a kilobyte of heap per cell, so the largest sheets are only read by {@link ExcelStreamedBenchmark}.
+ * @author terminological
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class ExcelReadBenchmark {
+
+	@Param({"NARROW", "WIDE"})
+	public Shape shape;
+
+	@Param({"NUMERIC", "TEXT", "FORMULA"})
+	public Values values;
+
+	@Param({"10000", "1000000"})
+	public int cells;
+
+	private File file;
+
+	@Setup
+	public void setup() throws Exception {
+		file = Datasets.xlsx(shape, values, cells);
+	}
+
+	private ExcelSheet sheet(Excel.Formulas formulas) throws Exception {
+		return Excel.fromFile(file).formulas(formulas).getSheet(Datasets.SHEET);
+	}
+
+	@Benchmark
+	public Object getContents() throws Exception {
+		return sheet(Excel.Formulas.EVALUATE).getContents();
+	}
+
+	@Benchmark
+	public Object getContentsCachedFormulas() throws Exception {
+		return sheet(Excel.Formulas.CACHED).getContents();
+	}
+
+	@Benchmark
+	public Object getContentsByRow() throws Exception {
+		return sheet(Excel.Formulas.EVALUATE).getContentsByRow();
+	}
+
+	@Benchmark
+	public Object getTable() throws Exception {
+		return sheet(Excel.Formulas.EVALUATE).getTable();
+	}
+
+	@Benchmark
+	public Object getTypedTable() throws Exception {
+		return sheet(Excel.Formulas.EVALUATE).getTypedTable();
+	}
+
+	@Benchmark
+	public void streamContents(Blackhole bh) throws Exception {
+		sheet(Excel.Formulas.EVALUATE).streamContents().forEach(bh::consume);
+	}
+}
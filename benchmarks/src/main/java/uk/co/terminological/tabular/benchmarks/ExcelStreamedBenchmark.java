@@ -0,0 +1,95 @@
+package uk.co.terminological.tabular.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.co.terminological.tabular.Excel;
+import uk.co.terminological.tabular.ExcelSheet;
+import uk.co.terminological.tabular.benchmarks.Datasets.Shape;
+import uk.co.terminological.tabular.benchmarks.Datasets.Values;
+
+/**
+ * Reads an xlsx file with the streaming reader ({@link Excel#streamFromFile(File)}) through each of the read
+ * methods of {@link ExcelSheet}. Each operation includes opening the file. Formula datasets are read from
+ * the results cached in the file.
+ * @author terminological
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class ExcelStreamedBenchmark {
+
+	@Param({"NARROW", "WIDE"})
+	public Shape shape;
+
+	@Param({"NUMERIC", "TEXT", "FORMULA"})
+	public Values values;
+
+	@Param({"10000", "1000000", "10000000"})
+	public int cells;
+
+	private File file;
+
+	@Setup
+	public void setup() throws Exception {
+		file = Datasets.xlsx(shape, values, cells);
+	}
+
+	private <X> X read(Function<ExcelSheet,X> extract) throws Exception {
+		Excel excel = Excel.streamFromFile(file);
+		try {
+			return extract.apply(excel.getSheet(Datasets.SHEET));
+		} finally {
+			excel.close();
+		}
+	}
+
+	@Benchmark
+	public Object getContents() throws Exception {
+		return read(ExcelSheet::getContents);
+	}
+
+	@Benchmark
+	public Object getContentsByRow() throws Exception {
+		return read(ExcelSheet::getContentsByRow);
+	}
+
+	@Benchmark
+	public Object getTable() throws Exception {
+		return read(ExcelSheet::getTable);
+	}
+
+	@Benchmark
+	public Object getTypedTable() throws Exception {
+		return read(ExcelSheet::getTypedTable);
+	}
+
+	/**
+	 * Labels the rows of a vertical sheet as they are read, without holding the sheet in memory
+	 */
+	@Benchmark
+	public Object streamContents(Blackhole bh) throws Exception {
+		return read(sheet -> {
+			sheet.streamContents().forEach(bh::consume);
+			return null;
+		});
+	}
+}
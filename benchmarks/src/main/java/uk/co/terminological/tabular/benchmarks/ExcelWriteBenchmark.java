@@ -0,0 +1,118 @@
+package uk.co.terminological.tabular.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.terminological.datatypes.EavMap;
+import uk.co.terminological.tabular.Excel;
+import uk.co.terminological.tabular.benchmarks.Datasets.Shape;
+import uk.co.terminological.tabular.benchmarks.Datasets.Values;
+
+/**
+ * Writes a sheet to an xlsx file with each of the write methods of {@link Excel}, in the workbook object model
+ * and in streaming mode, with each way of sizing the columns.
+ * @author terminological
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class ExcelWriteBenchmark {
+
+	public static enum Widths {
+		AUTO,
+		ESTIMATED,
+		NONE
+	}
+
+	@Param({"NARROW", "WIDE"})
+	public Shape shape;
+
+	@Param({"NUMERIC", "TEXT"})
+	public Values values;
+
+	@Param({"10000", "1000000"})
+	public int cells;
+
+	@Param({"AUTO", "ESTIMATED", "NONE"})
+	public Widths widths;
+
+	private EavMap<String,String,Object> contents;
+	private List<String> sortOrder;
+	private File file;
+
+	@Setup
+	public void setup() throws Exception {
+		contents = new EavMap<>();
+		sortOrder = new ArrayList<>();
+		Iterator<List<Object>> rows = Datasets.typedRows(shape, values, cells);
+		for (Object label: rows.next()) sortOrder.add(label.toString());
+		sortOrder.remove(0);
+		while (rows.hasNext()) {
+			List<Object> row = rows.next();
+			for (int i=1; i<row.size(); i++) contents.add(row.get(0).toString(), sortOrder.get(i-1), row.get(i));
+		}
+		file = File.createTempFile("benchmark", ".xlsx");
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	private Excel.ColumnWidths columnWidths() {
+		switch (widths) {
+		case AUTO: return Excel.ColumnWidths.auto();
+		case ESTIMATED: return Excel.ColumnWidths.estimated(100);
+		default: return Excel.ColumnWidths.none();
+		}
+	}
+
+	private long write(Excel excel) throws Exception {
+		try {
+			excel.write(file);
+		} finally {
+			excel.close();
+		}
+		return file.length();
+	}
+
+	@Benchmark
+	public long addSheetFromContents() throws Exception {
+		return write(Excel.create().columnWidths(columnWidths()).addSheet(Datasets.SHEET, contents, sortOrder));
+	}
+
+	@Benchmark
+	public long addSheetFromContentsStreaming() throws Exception {
+		return write(Excel.createStreaming().columnWidths(columnWidths()).addSheet(Datasets.SHEET, contents, sortOrder));
+	}
+
+	@Benchmark
+	public long addSheetFromRows() throws Exception {
+		return write(Excel.create().columnWidths(columnWidths()).addSheet(Datasets.SHEET, Datasets.typedRows(shape, values, cells)));
+	}
+
+	@Benchmark
+	public long addSheetFromRowsStreaming() throws Exception {
+		return write(Excel.createStreaming().columnWidths(columnWidths()).addSheet(Datasets.SHEET, Datasets.typedRows(shape, values, cells)));
+	}
+}
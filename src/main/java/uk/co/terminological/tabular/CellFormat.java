@@ -0,0 +1,80 @@
+package uk.co.terminological.tabular;
+
+import java.text.Format;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import uk.co.terminological.mappers.DateFormatString;
+
+/**
+ * Converts numeric cell values to strings for a workbook. Whether a cell style is a date format is decided once
+ * per style, rather than by parsing the format string of every cell, and whole numbers are formatted without
+ * going through {@link Double#toString(double)}. It is thread safe.
+ * @author terminological
+ *
+ */
+class CellFormat {
+
+	//values which Double.toString formats as a whole number with a decimal point rather than in E notation
+	private static final double PLAIN_LIMIT = 1e7;
+	//values which are exactly representable as whole numbers
+	private static final double INTEGER_LIMIT = 1e15;
+
+	private static final ThreadLocal<Format> DATE_FORMAT = ThreadLocal.withInitial(
+			() -> (Format) DateFormatString.ISO_DATE_TIME_ZONE_FORMAT.clone());
+
+	/**
+	 * The default format for cells of any workbook, which decides whether a style is a date format for each 
+	 * cell, as style indexes are only meaningful within one workbook
+	 */
+	static final CellFormat DEFAULT = new CellFormat(false, null);
+
+	private final boolean plainIntegers;
+	private final Map<Short,Boolean> dateStyles; //null if styles are not remembered
+
+	/**
+	 * A format for the cells of one workbook
+	 * @param plainIntegers format whole numbers without a decimal point, e.g. 1 rather than 1.0
+	 */
+	CellFormat(boolean plainIntegers) {
+		this(plainIntegers, new ConcurrentHashMap<>());
+	}
+
+	private CellFormat(boolean plainIntegers, Map<Short,Boolean> dateStyles) {
+		this.plainIntegers = plainIntegers;
+		this.dateStyles = dateStyles;
+	}
+
+	boolean isPlainIntegers() {
+		return plainIntegers;
+	}
+
+	/**
+	 * @return the same as {@link DateUtil#isCellDateFormatted(Cell)} for a numeric cell
+	 */
+	boolean isDate(Cell cell) {
+		if (!DateUtil.isValidExcelDate(cell.getNumericCellValue())) return false;
+		CellStyle style = cell.getCellStyle();
+		if (style == null) return false;
+		if (dateStyles == null) return DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+		return dateStyles.computeIfAbsent(style.getIndex(),
+				i -> DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString()));
+	}
+
+	String number(double value) {
+		if (value == (long) value && !(value == 0 && 1/value < 0)) {
+			if (plainIntegers && Math.abs(value) < INTEGER_LIMIT) return Long.toString((long) value);
+			if (Math.abs(value) < PLAIN_LIMIT) return Long.toString((long) value)+".0";
+		}
+		return Double.toString(value);
+	}
+
+	static String date(Date value) {
+		return DATE_FORMAT.get().format(value);
+	}
+}
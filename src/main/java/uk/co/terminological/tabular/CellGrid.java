@@ -0,0 +1,239 @@
+package uk.co.terminological.tabular;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.co.terminological.datatypes.EavMap;
+
+/**
+ * The non empty cells of a sheet as parallel arrays of keys and values, sorted in row major order. The key
+ * packs the row index in the high 32 bits and the column index in the low 32 bits. Cells can be added in any
+ * order, and are sorted when the grid is sealed. The column major order is found on first use.
+ *
+ * A typed grid also keeps the type of each cell, with numbers, booleans (as 0 or 1) and dates (as epoch 
+ * milliseconds) held as primitive doubles. Their string values are formatted when they are asked for.
+ * @author terminological
+ *
+ */
+class CellGrid {
+
+	private long[] keys = new long[64];
+	private String[] values = new String[64];
+	private ColumnType[] types = null; //only in a typed grid
+	private double[] numbers = null;
+	private final CellFormat format;
+	private int size = 0;
+	private boolean sorted = true;
+	private volatile int[] columnMajor = null;
+	private long estimatedBytes = 0;
+
+	CellGrid() {
+		this.format = null;
+	}
+
+	/**
+	 * A typed grid, whose values are formatted as strings using this format
+	 */
+	CellGrid(CellFormat format) {
+		this.format = format;
+		this.types = new ColumnType[keys.length];
+		this.numbers = new double[keys.length];
+	}
+
+	static long key(int row, int column) {
+		return ((long) row << 32) | (column & 0xFFFFFFFFL);
+	}
+
+	void add(int row, int column, String value) {
+		int i = next(row, column);
+		values[i] = value;
+		if (types != null) types[i] = ColumnType.STRING;
+	}
+
+	/**
+	 * Adds a double, boolean (0 or 1) or timestamp (epoch milliseconds) cell to a typed grid
+	 */
+	void add(int row, int column, ColumnType type, double number) {
+		int i = next(row, column);
+		types[i] = type;
+		numbers[i] = number;
+	}
+
+	//the position of a new cell
+	private int next(int row, int column) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size*2);
+			values = Arrays.copyOf(values, size*2);
+			if (types != null) {
+				types = Arrays.copyOf(types, size*2);
+				numbers = Arrays.copyOf(numbers, size*2);
+			}
+		}
+		long key = key(row, column);
+		if (size > 0 && key <= keys[size-1]) sorted = false;
+		keys[size] = key;
+		values[size] = null;
+		return size++;
+	}
+
+	/**
+	 * Sorts the cells and releases the unused space. A later value for the same cell replaces an earlier one.
+	 */
+	CellGrid seal() {
+		if (!sorted) {
+			Integer[] order = new Integer[size];
+			for (int i=0; i<size; i++) order[i] = i;
+			long[] k = keys;
+			//stable so that the last of duplicate keys is last
+			Arrays.sort(order, (a,b) -> Long.compare(k[a], k[b]));
+			long[] sortedKeys = new long[size];
+			String[] sortedValues = new String[size];
+			ColumnType[] sortedTypes = types == null ? null : new ColumnType[size];
+			double[] sortedNumbers = types == null ? null : new double[size];
+			int n = 0;
+			for (int i=0; i<size; i++) {
+				if (n > 0 && sortedKeys[n-1] == k[order[i]]) n--;
+				sortedKeys[n] = k[order[i]];
+				sortedValues[n] = values[order[i]];
+				if (types != null) {
+					sortedTypes[n] = types[order[i]];
+					sortedNumbers[n] = numbers[order[i]];
+				}
+				n++;
+			}
+			keys = sortedKeys;
+			values = sortedValues;
+			types = sortedTypes;
+			numbers = sortedNumbers;
+			size = n;
+			sorted = true;
+		}
+		keys = Arrays.copyOf(keys, size);
+		values = Arrays.copyOf(values, size);
+		estimatedBytes = 64L + 20L*size; //keys, values and the column major order
+		if (types != null) {
+			types = Arrays.copyOf(types, size);
+			numbers = Arrays.copyOf(numbers, size);
+			estimatedBytes += 12L*size;
+		}
+		for (String value: values) {
+			if (value != null) estimatedBytes += 40L + 2L*value.length(); //ignoring shared strings
+		}
+		return this;
+	}
+
+	/**
+	 * @return the approximate heap used by a sealed grid, including its strings
+	 */
+	long estimatedBytes() {
+		return estimatedBytes;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int row(int i) {
+		return (int) (keys[i] >>> 32);
+	}
+
+	int column(int i) {
+		return (int) keys[i];
+	}
+
+	String value(int i) {
+		if (types == null || types[i] == ColumnType.STRING) return values[i];
+		switch (types[i]) {
+		case BOOLEAN: return numbers[i] != 0 ? "true" : "false";
+		case TIMESTAMP: return CellFormat.date(new Date((long) numbers[i]));
+		default: return format.number(numbers[i]);
+		}
+	}
+
+	/**
+	 * @return the type of a cell, which is always STRING unless the grid is typed
+	 */
+	ColumnType type(int i) {
+		return types == null ? ColumnType.STRING : types[i];
+	}
+
+	/**
+	 * @return the value of a double, boolean or timestamp cell in a typed grid
+	 */
+	double number(int i) {
+		return numbers[i];
+	}
+
+	/**
+	 * @return the value of a cell or null if it is empty
+	 */
+	String get(int row, int column) {
+		int i = Arrays.binarySearch(keys, 0, size, key(row, column));
+		return i < 0 ? null : value(i);
+	}
+
+	/**
+	 * @return the positions of the cells in column major order
+	 */
+	int[] columnMajor() {
+		if (columnMajor == null) {
+			long[] transposed = new long[size];
+			for (int i=0; i<size; i++) transposed[i] = key(column(i), row(i));
+			Arrays.sort(transposed);
+			int[] out = new int[size];
+			for (int i=0; i<size; i++) {
+				out[i] = Arrays.binarySearch(keys, 0, size, key((int) transposed[i], (int) (transposed[i] >>> 32)));
+			}
+			columnMajor = out;
+		}
+		return columnMajor;
+	}
+
+	/**
+	 * @return the values in a row by column index
+	 */
+	Map<Integer,String> rowValues(int row) {
+		Map<Integer,String> out = new LinkedHashMap<>();
+		int i = Arrays.binarySearch(keys, 0, size, key(row, 0));
+		if (i < 0) i = -i-1;
+		for (; i<size && row(i) == row; i++) out.put(column(i), value(i));
+		return out;
+	}
+
+	/**
+	 * @return the values in a column by row index
+	 */
+	Map<Integer,String> columnValues(int column) {
+		Map<Integer,String> out = new LinkedHashMap<>();
+		int[] order = columnMajor();
+		//the first cell in or after the column
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if (column(order[mid]) < column) lo = mid+1;
+			else hi = mid;
+		}
+		for (int j=lo; j<size && column(order[j]) == column; j++) out.put(row(order[j]), value(order[j]));
+		return out;
+	}
+
+	/**
+	 * @return a row based EAV map (row E, column A, value V)
+	 */
+	EavMap<Long,Integer,String> byRow() {
+		EavMap<Long,Integer,String> out = new EavMap<>();
+		for (int i=0; i<size; i++) out.add(Integer.toUnsignedLong(row(i)), column(i), value(i));
+		return out;
+	}
+
+	/**
+	 * @return a column based EAV map (column E, row A, value V)
+	 */
+	EavMap<Long,Integer,String> byColumn() {
+		EavMap<Long,Integer,String> out = new EavMap<>();
+		for (int i: columnMajor()) out.add(Integer.toUnsignedLong(column(i)), row(i), value(i));
+		return out;
+	}
+}
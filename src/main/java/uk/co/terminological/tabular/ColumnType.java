@@ -0,0 +1,17 @@
+package uk.co.terminological.tabular;
+
+/**
+ * The type of a column in a {@link TypedRow}. Integers, longs, booleans, dates (as the epoch day) and 
+ * timestamps (as epoch milliseconds) are held as primitive longs, and doubles as primitive doubles. 
+ * @author terminological
+ *
+ */
+public enum ColumnType {
+	STRING,
+	INTEGER,
+	LONG,
+	DOUBLE,
+	BOOLEAN,
+	DATE,
+	TIMESTAMP
+}
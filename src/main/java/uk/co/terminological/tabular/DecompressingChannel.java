@@ -0,0 +1,168 @@
+package uk.co.terminological.tabular;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * A channel which decompresses a gzip or zip file on a separate thread, so that decompression overlaps with
+ * decoding and parsing on the consumer thread. Decompressed bytes are passed to the consumer in a fixed number
+ * of buffers, which are returned to the decompressing thread once they have been read, so that it never runs
+ * more than {@link #BUFFERS} buffers ahead and nothing is allocated per read. Only the first entry of a zip
+ * file is read.
+ *
+ * Errors on the decompressing thread are thrown to the consumer when it reaches the point in the data where
+ * they happened. Closing the channel stops the decompressing thread and closes the underlying channel.
+ *
+ * @author terminological
+ *
+ */
+class DecompressingChannel implements ReadableByteChannel {
+
+	static final int BUFFERS = 4;
+	//how long closing waits for the decompressing thread to stop
+	static final long CLOSE_MILLIS = 1000;
+
+	//the end of the data, which is always the last buffer passed to the consumer
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	static enum Compression {
+		GZIP, ZIP
+	}
+
+	private final ReadableByteChannel source;
+	private final String name;
+	private final Compression compression;
+	private final int bufferSize;
+	private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BUFFERS + 1);
+	private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS);
+	private final Thread worker;
+	private volatile IOException error = null;
+	private volatile boolean open = true;
+	private ByteBuffer current = null;
+	private boolean end = false;
+
+	/**
+	 * The compression of a file from its first bytes, or null if it is not compressed. The position of
+	 * the channel is unchanged.
+	 */
+	static Compression detect(FileChannel channel) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(4);
+		while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0);
+		if (magic.position() >= 2 && (magic.get(0) & 0xff) == 0x1f && (magic.get(1) & 0xff) == 0x8b) return Compression.GZIP;
+		if (magic.position() == 4 && magic.get(0) == 'P' && magic.get(1) == 'K' && magic.get(2) == 3 && magic.get(3) == 4) return Compression.ZIP;
+		return null;
+	}
+
+	DecompressingChannel(ReadableByteChannel source, Compression compression, int bufferSize, String name) {
+		this.source = source;
+		this.name = name;
+		this.compression = compression;
+		this.bufferSize = bufferSize;
+		for (int i=0; i<BUFFERS; i++) free.add(ByteBuffer.allocate(bufferSize));
+		this.worker = new Thread(this::decompress, "decompress "+name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	//the decompressing thread, which fills free buffers until the data ends, fails or the channel is closed
+	private void decompress() {
+		try (InputStream in = open()) {
+			boolean more = in != null;
+			while (more && open) {
+				ByteBuffer buffer = free.take();
+				buffer.clear();
+				int n = 0;
+				while (buffer.hasRemaining() && (n = in.read(buffer.array(), buffer.position(), buffer.remaining())) >= 0) {
+					buffer.position(buffer.position() + n);
+				}
+				more = n >= 0;
+				buffer.flip();
+				if (buffer.hasRemaining()) full.put(buffer);
+			}
+		} catch (InterruptedException e) {
+			//closed
+		} catch (IOException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = new IOException(e);
+		} finally {
+			full.offer(END); //there is always room, as there are at most BUFFERS buffers in the queue
+		}
+	}
+
+	//the decompressed stream, or null if a zip file has no entries
+	private InputStream open() throws IOException {
+		InputStream in = Channels.newInputStream(source);
+		switch (compression) {
+		case GZIP:
+			return new GZIPInputStream(in, bufferSize);
+		default:
+			ZipInputStream zip = new ZipInputStream(in);
+			if (zip.getNextEntry() != null) return zip;
+			zip.close();
+			return null;
+		}
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!open) throw new ClosedChannelException();
+		if (current == null || !current.hasRemaining()) {
+			if (current != null) free.offer(current);
+			current = null;
+			if (end) return -1;
+			try {
+				current = full.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			if (current == END) {
+				current = null;
+				end = true;
+				if (error != null) throw new IOException("Could not decompress "+name, error);
+				return -1;
+			}
+		}
+		int n = Math.min(dst.remaining(), current.remaining());
+		ByteBuffer src = current.duplicate();
+		src.limit(src.position() + n);
+		dst.put(src);
+		current.position(current.position() + n);
+		return n;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Closes the underlying channel, which releases the decompressing thread if it is blocked reading from it,
+	 * and waits a short time for the thread to stop
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!open) return;
+		open = false;
+		worker.interrupt();
+		try {
+			source.close();
+		} finally {
+			try {
+				worker.join(CLOSE_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
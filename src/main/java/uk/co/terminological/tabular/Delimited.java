@@ -1,21 +1,42 @@
 package uk.co.terminological.tabular;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import uk.co.terminological.datatypes.Deferred;
 import uk.co.terminological.datatypes.EavMap;
@@ -25,6 +46,7 @@ import uk.co.terminological.parser.DelimitedParserBuilder;
 import uk.co.terminological.parser.ParserException;
 import uk.co.terminological.parser.StateMachineException;
 import uk.co.terminological.parser.StateMachineExecutor.ErrorHandler;
+import uk.co.terminological.tabular.MetricsListener.Phase;
 
 
 /**
@@ -34,30 +56,169 @@ import uk.co.terminological.parser.StateMachineExecutor.ErrorHandler;
  */
 public class Delimited {
 
+	/**
+	 * The default size in bytes / characters of the read buffers used by {@link #fromFile(File)} and {@link #fromStream(InputStream)}
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+	
 	private Reader reader;
 	private Content content;
+	private boolean ordered = true;
 	private List<Tuple<Long,List<String>>> cache = new ArrayList<>();
+	private MetricsListener metrics = MetricsListener.NONE;
+	private String source = "input";
+	private File file = null;
+	private CountingChannel channel = null; //the bytes read, unless the file is memory mapped
+	private long rows = 0;
+	private long cells = 0;
+	private boolean reported = false;
 
 	/**
-	 * Open a delimited data file and provide access to a set of configuration options
+	 * Open a delimited data file in the platform default character set and provide access to a set of configuration options
 	 * 
 	 * @param file
 	 * @return
 	 * @throws FileNotFoundException
+	 * @throws UncheckedIOException if the start of the file cannot be read
 	 */
 	public static Format fromFile(File file) throws FileNotFoundException {
-		return fromReader(new FileReader(file));
+		try {
+			return fromFile(file, Charset.defaultCharset());
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
-
+	
 	/**
-	 * Open a delimited data stream and provide access to a set of configuration options
+	 * Open a delimited data file in a given character set and provide access to a set of configuration options
 	 * 
 	 * @param file
+	 * @param charset
+	 * @return
+	 * @throws IOException if the file cannot be opened or its start cannot be read
+	 */
+	public static Format fromFile(File file, Charset charset) throws IOException {
+		return fromFile(file, charset, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Open a delimited data file in a given character set, decoding directly from the file channel
+	 * through buffers of the given size, and provide access to a set of configuration options. 
+	 * Gzip and zip files are detected from their contents and decompressed on a separate thread 
+	 * as they are parsed. Only the first entry of a zip file is read, and compressed files cannot 
+	 * be memory mapped.
+	 * 
+	 * @param file
+	 * @param charset
+	 * @param bufferSize
+	 * @return
+	 * @throws IOException if the file cannot be opened or its start cannot be read
+	 */
+	public static Format fromFile(File file, Charset charset, int bufferSize) throws IOException {
+		FileChannel channel = new FileInputStream(file).getChannel();
+		DecompressingChannel.Compression compression;
+		try {
+			compression = DecompressingChannel.detect(channel);
+		} catch (IOException e) {
+			try {
+				channel.close();
+			} catch (IOException e2) {
+				e.addSuppressed(e2);
+			}
+			throw e;
+		}
+		Format out;
+		if (compression == null) {
+			out = fromChannel(channel, charset, bufferSize);
+			out.file = file;
+		} else {
+			//the bytes read are counted before they are decompressed
+			CountingChannel counted = new CountingChannel(channel);
+			out = fromChannel(new DecompressingChannel(counted, compression, bufferSize, file.getPath()), charset, bufferSize);
+			out.out.channel = counted;
+			out.compressed = true;
+		}
+		out.out.source = file.getPath();
+		out.out.file = file;
+		out.charset = charset;
+		return out;
+	}
+
+	/**
+	 * Open a delimited data stream in the platform default character set and provide access to a set of configuration options
+	 * 
+	 * @param is
 	 * @return
-	 * @throws FileNotFoundException
 	 */
 	public static Format fromStream(InputStream is) {
-		return fromReader(new InputStreamReader(is));
+		return fromStream(is, Charset.defaultCharset());
+	}
+	
+	/**
+	 * Open a delimited data stream in a given character set and provide access to a set of configuration options
+	 * 
+	 * @param is
+	 * @param charset
+	 * @return
+	 */
+	public static Format fromStream(InputStream is, Charset charset) {
+		return fromStream(is, charset, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Open a delimited data stream in a given character set, read through buffers of the given size,
+	 * and provide access to a set of configuration options
+	 * 
+	 * @param is
+	 * @param charset
+	 * @param bufferSize
+	 * @return
+	 */
+	public static Format fromStream(InputStream is, Charset charset, int bufferSize) {
+		return fromChannel(Channels.newChannel(is), charset, bufferSize);
+	}
+	
+	//decodes in bulk from the channel and buffers the characters so the parser never 
+	//reads through to the underlying stream character by character.
+	//malformed input is replaced rather than reported, as for an InputStreamReader.
+	private static Format fromChannel(ReadableByteChannel channel, Charset charset, int bufferSize) {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CountingChannel counted = new CountingChannel(channel);
+		Format out = fromReader(new BufferedReader(Channels.newReader(counted, decoder, bufferSize), bufferSize));
+		out.out.channel = counted;
+		return out;
+	}
+	
+	//counts the bytes read through a channel for the metrics listener
+	private static class CountingChannel implements ReadableByteChannel {
+		
+		private final ReadableByteChannel channel;
+		private volatile long bytes = 0; //may be read by a decompressing thread
+		
+		CountingChannel(ReadableByteChannel channel) {
+			this.channel = channel;
+		}
+		
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			int n = channel.read(dst);
+			if (n > 0) bytes += n;
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
 	}
 
 	/**
@@ -73,27 +234,143 @@ public class Delimited {
 	
 	/**
 	 * converts a labelled csv file to a stream of identity, attribute, value triples. 
-	 * This loads all the data into memory first. 
+	 * The file is read lazily as the stream is consumed, and closing the stream closes the underlying reader.
+	 * Unlike {@link #getContents()} rows with duplicate identifiers are not merged. 
 	 * @return
-	 * @throws MalformedCSVException
+	 * @throws ParserException retained for compatibility, as lines are now parsed during stream consumption
+	 * @throws UncheckedParserException during stream consumption if a line cannot be parsed
 	 */
 	public Stream<Triple<String,String,String>> streamContents() throws ParserException {
-		return getContents().stream();
+		return streamRows().flatMap(row -> 
+			row.getValue().entrySet().stream().map(av -> Triple.create(row.getKey(), av.getKey(), av.getValue())));
+	}
+	
+	/**
+	 * converts a labelled csv file to a stream of identity, labelled values for each row of the file.
+	 * The file is read lazily as the stream is consumed, and closing the stream closes the underlying reader.
+	 * @return
+	 * @throws UncheckedParserException during stream consumption if a line cannot be parsed
+	 */
+	public Stream<Tuple<String,Map<String,String>>> streamRows() {
+		return convertLines(this::convertLine);
+	}
+	
+	//converts the lines as the stream is consumed, on the conversion workers if the parser is pipelined
+	private <X> Stream<X> convertLines(Function<Tuple<Long,List<String>>,X> conversion) {
+		if (content.parser instanceof PipelinedTokenizer) {
+			return stream(((PipelinedTokenizer) content.parser).convert(lines(), conversion));
+		}
+		return streamLines().map(conversion);
+	}
+	
+	private Tuple<String,Map<String,String>> convertLine(Tuple<Long,List<String>> line) {
+		try {
+			return content.convertLine(line);
+		} catch (ParserException e) {
+			throw new UncheckedParserException(error(line.getKey(), e));
+		}
+	}
+	
+	//a lazy stream of record number and raw values driven directly off the content iterator
+	//unless parsing in parallel without ordering, when records are streamed as ranges of the file complete
+	private Stream<Tuple<Long,List<String>>> streamLines() {
+		if (!ordered && content.parser instanceof ParallelTokenizer) {
+			ParallelTokenizer parallel = (ParallelTokenizer) content.parser;
+			long headers = parallel.consumed() - (content.recordNumber + 1);
+			Stream<Tuple<Long,List<String>>> out = stream(parallel.unordered(headers));
+			if (content.dictionary.isPresent()) out = out.map(line -> Tuple.create(line.getKey(), content.intern(line.getValue())));
+			if (metrics != MetricsListener.NONE) out = out.peek(line -> count(line.getValue()));
+			return out;
+		}
+		return stream(lines());
+	}
+	
+	//the remaining record numbers and raw values of the content
+	private Iterator<Tuple<Long,List<String>>> lines() {
+		return new Iterator<Tuple<Long,List<String>>>() {
+			@Override
+			public boolean hasNext() {
+				return content.hasNext();
+			}
+			@Override
+			public Tuple<Long, List<String>> next() {
+				try {
+					return content.next().get();
+				} catch (ParserException e) {
+					throw new UncheckedParserException(error(content.recordNumber + 1, e));
+				}
+			}
+		};
+	}
+	
+	//a lazy stream which closes the file when the iterator is exhausted or the stream is closed
+	private <X> Stream<X> stream(Iterator<X> iterator) {
+		Iterator<X> closing = new Iterator<X>() {
+			@Override
+			public boolean hasNext() {
+				if (iterator.hasNext()) return true;
+				Delimited.this.close();
+				return false;
+			}
+			@Override
+			public X next() {
+				return iterator.next();
+			}
+		};
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(closing, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(this::close);
 	}
 	
 	public void close() {
 		try {
+			//a pipelined parser stops reading before the reader is closed
+			if (content.parser instanceof Closeable) ((Closeable) content.parser).close();
 			reader.close();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
+		report();
+	}
+	
+	//the rows, fields and bytes read, reported once when the file is closed
+	private void report() {
+		if (reported || metrics == MetricsListener.NONE) return;
+		reported = true;
+		metrics.rows(source, rows);
+		metrics.cells(source, cells);
+		if (content.parser instanceof MappedTokenizer || content.parser instanceof ParallelTokenizer) {
+			metrics.bytes(source, file.length());
+		} else if (channel != null) {
+			metrics.bytes(source, channel.bytes);
+		}
+	}
+	
+	//counts a row that has been read
+	void count(List<String> values) {
+		rows++;
+		cells += values.size();
+	}
+	
+	//reports an error parsing a record, which may be on a conversion worker so the record number is passed in
+	//rather than taken from the rows read so far
+	private ParserException error(long recordNumber, ParserException e) {
+		metrics.parseError(source, recordNumber, e);
+		return e;
 	}
 	
 	private void cacheContents() throws ParserException {
+		Stopwatch clock = new Stopwatch(metrics);
 		while (content.hasNext()) {
 			Deferred<Tuple<Long,List<String>>,ParserException> line = content.next();
-			cache.add(line.get());
+			try {
+				cache.add(line.get());
+			} catch (ParserException e) {
+				throw error(content.recordNumber + 1, e);
+			}
 		}
+		clock.lap(Phase.PARSE);
+		clock.report(source);
 		this.close();
 	}
 	
@@ -103,16 +380,119 @@ public class Delimited {
 	 * @throws IOException 
 	 */
 	public EavMap<String,String,String> getContents() throws ParserException {
+		if (content.parser instanceof PipelinedTokenizer) return build(new EavMap<>(), this::convertLine, 
+				(out, row) -> out.add(row.getKey(), row.getValue()));
 		cacheContents();
+		Stopwatch clock = new Stopwatch(metrics);
 		EavMap<String,String,String> out = new EavMap<>();
 		for (Tuple<Long,List<String>> line: cache) {
-			Tuple<String,Map<String,String>> tmp = content.convertLine(line);
+			Tuple<String,Map<String,String>> tmp;
+			try {
+				tmp = content.convertLine(line);
+			} catch (ParserException e) {
+				throw error(line.getKey(), e);
+			}
 			out.add(tmp.getKey(), tmp.getValue());
 		}
+		clock.lap(Phase.BUILD);
+		clock.report(source);
 		this.close();
 		return out;
 	}
 	
+	//adds the remaining lines to the output as they are converted on the conversion workers of a pipelined parser
+	private <X,Y> X build(X out, Function<Tuple<Long,List<String>>,Y> conversion, BiConsumer<X,Y> add) throws ParserException {
+		Stopwatch clock = new Stopwatch(metrics);
+		try {
+			Iterator<Y> rows = ((PipelinedTokenizer) content.parser).convert(lines(), conversion);
+			while (rows.hasNext()) {
+				Y row = rows.next();
+				clock.lap(Phase.PARSE);
+				add.accept(out, row);
+				clock.lap(Phase.BUILD);
+			}
+		} catch (UncheckedParserException e) {
+			throw e.getCause();
+		} finally {
+			clock.report(source);
+			this.close();
+		}
+		return out;
+	}
+	
+	/**
+	 * A stream of rows of the columns declared with {@link Content#column(String, ColumnType)} parsed to their declared types.
+	 * Numbers are parsed directly from the file with the memory mapped engine, and columns that are not declared 
+	 * are never decoded. The file is read lazily as the stream is consumed, and closing the stream closes the underlying reader.
+	 * @return
+	 * @throws UncheckedParserException during stream consumption if a line cannot be parsed
+	 * @throws ValueFormatException during stream consumption if a numeric or date column cannot be parsed
+	 */
+	public Stream<TypedRow> streamTypedRows() {
+		return convertLines(line -> content.typed(line.getKey(), line.getValue()));
+	}
+	
+	/**
+	 * Reads the remaining content into a columnar table, which holds the columns declared with 
+	 * {@link Content#column(String, ColumnType)} (or all columns as strings if none are declared) in primitive 
+	 * arrays and dictionary encoded strings. Rows are identified in the same way as {@link #getContents()}.  
+	 * This needs much less memory than an EAV map, which can be created from the table if needed.  
+	 * @return
+	 * @throws ParserException
+	 * @throws ValueFormatException if a numeric or date column cannot be parsed
+	 */
+	public Table getTable() throws ParserException {
+		if (content.parser instanceof PipelinedTokenizer) return build(new Table(), 
+				line -> Tuple.create(content.identifier(line.getKey(), line.getValue()), content.typed(line.getKey(), line.getValue())), 
+				(out, row) -> out.append(row.getKey(), row.getValue())).seal();
+		Table out = new Table();
+		Stopwatch clock = new Stopwatch(metrics);
+		try {
+			while (content.hasNext()) {
+				List<String> values = content.nextValues();
+				clock.lap(Phase.PARSE);
+				out.append(
+						content.identifier(content.recordNumber, values), 
+						content.typed(content.recordNumber, values));
+				clock.lap(Phase.BUILD);
+			}
+		} catch (ParserException e) {
+			throw error(content.recordNumber + 1, e);
+		} finally {
+			clock.report(source);
+			this.close();
+		}
+		return out.seal();
+	}
+	
+	/**
+	 * Passes each remaining row of the file to the visitor in order, without converting the row to triples or maps, and 
+	 * closes the file when all rows have been visited.
+	 * The row values are not copied, so with the memory mapped engine only the fields the visitor reads are decoded.
+	 * @param visitor
+	 * @return the number of rows visited
+	 * @throws ParserException
+	 */
+	public long visitRows(RowVisitor visitor) throws ParserException {
+		long count = 0;
+		Stopwatch clock = new Stopwatch(metrics);
+		try {
+			while (content.hasNext()) {
+				List<String> values = content.nextValues();
+				clock.lap(Phase.PARSE);
+				count++;
+				if (!visitor.onRow(content.recordNumber, values)) break;
+				clock.skip();
+			}
+		} catch (ParserException e) {
+			throw error(content.recordNumber + 1, e);
+		} finally {
+			clock.report(source);
+			this.close();
+		}
+		return count;
+	}
+	
 	public List<String> getHeaders() {
 		return content.labelMap.orElse(null);
 	}
@@ -137,12 +517,14 @@ public class Delimited {
 	
 	/**
 	 * A stream of individual indexed entries in the csv based on a row then column coordinate system.
-	 * The current implementation loads the csv into memory before streaming.
+	 * The file is read lazily as the stream is consumed, and closing the stream closes the underlying reader.
 	 * @return
-	 * @throws MalformedCSVException
+	 * @throws ParserException retained for compatibility, as lines are now parsed during stream consumption
+	 * @throws UncheckedParserException during stream consumption if a line cannot be parsed
 	 */
 	public Stream<Triple<Long,Integer,String>> streamContentsByRow() throws ParserException {
-		return getContentsByRow().stream();
+		return streamLines().flatMap(line -> 
+			IntStream.range(0, line.getValue().size()).mapToObj(i -> Triple.create(line.getKey(), i, line.getValue().get(i))));
 	}
 
 	/**
@@ -154,23 +536,112 @@ public class Delimited {
 	 */
 	public static class Format {
 
+		//the line ending of every parse engine unless another is given, as unix line endings
+		static final String DEFAULT_TERMINATOR = "\n";
+
 		Delimited out;
 		DelimitedParserBuilder builder;
 		
+		//the dialect is tracked alongside the builder for the alternative parse engines
+		String separator = ",";
+		String enclosure = "\"";
+		String escape = null;
+		String terminator = DEFAULT_TERMINATOR;
+		boolean mandatoryEnclosure = false;
+		
+		File file = null;
+		Charset charset = null;
+		boolean compressed = false;
+		boolean memoryMapped = false;
+		int threads = 1;
+		int converters = 0; //pipelined if there are any
+		
 		public Format(Reader reader) {
 			out = new Delimited();
 			out.reader = reader;
 			out.content = new Content(out);
 			builder = DelimitedParserBuilder.machine();
+			builder.lineEnding(DEFAULT_TERMINATOR);
 		}
 
 		public Format windows() {
-			builder.lineEnding("\r\n");
-			return this;
+			return terminator("\r\n");
 		}
 		
 		public Format unix() {
-			builder.lineEnding("\n");
+			return terminator("\n");
+		}
+		
+		/**
+		 * Parse the file using a memory mapped tokenizer which scans the bytes of the file directly and
+		 * only decodes the fields that are read into Strings. This is much faster than the default parser for 
+		 * large files but is only available for delimited data opened with {@link Delimited#fromFile(File)} 
+		 * in an ASCII compatible character set such as UTF-8, and where the separator, enclosure and escape 
+		 * are single characters. The mapped tokenizer is lenient and does not report malformed lines. 
+		 * @return
+		 * @throws UnsupportedOperationException if the data was not opened from a file, the file is compressed or it is pipelined
+		 */
+		public Format memoryMapped() {
+			if (compressed) throw new UnsupportedOperationException("Memory mapping is not available for compressed files");
+			if (file == null) throw new UnsupportedOperationException("Memory mapping is only available for files");
+			if (converters > 0) throw new UnsupportedOperationException("A pipelined file cannot be memory mapped");
+			memoryMapped = true;
+			return this;
+		}
+
+		/**
+		 * Parse the file in ranges concurrently on the given number of threads using the memory mapped tokenizer 
+		 * (see {@link #memoryMapped()}). Records are returned in file order, and record numbers are the same as 
+		 * for sequential parsing. Parallel parsing does not support an escape character that is different 
+		 * from the enclosure.
+		 * @param threads
+		 * @return
+		 * @throws IllegalArgumentException if there are less than one threads
+		 * @throws UnsupportedOperationException if the data was not opened from a file, the file is compressed or it is pipelined
+		 */
+		public Format parallel(int threads) {
+			if (threads < 1) throw new IllegalArgumentException("At least one thread is needed");
+			memoryMapped();
+			this.threads = threads;
+			return this;
+		}
+		
+		/**
+		 * Parse the file in a pipeline of stages on separate threads: reading and decoding the input, tokenising
+		 * it with the state machine parser, and converting the rows to labelled maps or typed rows on the given 
+		 * number of conversion workers. The stages are connected by bounded queues so only a few blocks of the 
+		 * file are read ahead of the consumer. Records are returned in file order, and the content iterator is
+		 * unchanged. This uses several cores for a single file which cannot be memory mapped, such as a stream 
+		 * or compressed file. The rows are converted concurrently by {@link Delimited#getContents()}, 
+		 * {@link Delimited#getTable()}, {@link Delimited#streamRows()}, {@link Delimited#streamContents()} 
+		 * and {@link Delimited#streamTypedRows()}.
+		 * @param converters the number of conversion workers
+		 * @return
+		 * @throws UnsupportedOperationException if the file is memory mapped
+		 */
+		public Format pipelined(int converters) {
+			if (converters < 1) throw new IllegalArgumentException("At least one conversion worker is needed");
+			if (memoryMapped) throw new UnsupportedOperationException("A memory mapped file cannot be pipelined");
+			this.converters = converters;
+			return this;
+		}
+		
+		/**
+		 * Parse the file in a pipeline with a single conversion worker, see {@link #pipelined(int)}
+		 * @return
+		 */
+		public Format pipelined() {
+			return pipelined(1);
+		}
+		
+		/**
+		 * When parsing in parallel allow the streams from {@link Delimited} to return records in the order 
+		 * that they are parsed rather than file order, for maximum throughput. Record numbers are unaffected. 
+		 * The content iterator, and the EAV maps built from it, are always in file order. 
+		 * @return
+		 */
+		public Format unordered() {
+			out.ordered = false;
 			return this;
 		}
 
@@ -181,7 +652,15 @@ public class Delimited {
 		 */
 		public Content parse(ErrorHandler e) {
 			builder.errorHandler(e);
-			out.content.parser = builder.build(out.reader);
+			if (threads > 1) {
+				out.content.parser = new ParallelTokenizer(file, charset, separator, enclosure, escape, terminator, threads);
+			} else if (memoryMapped) {
+				out.content.parser = new MappedTokenizer(file, charset, separator, enclosure, escape, terminator);
+			} else if (converters > 0) {
+				out.content.parser = new PipelinedTokenizer(out.reader, builder, converters, out.source);
+			} else {
+				out.content.parser = builder.build(out.reader);
+			}
 			return out.content;
 		}
 
@@ -190,8 +669,7 @@ public class Delimited {
 		 * @return
 		 */
 		public Content csv() {
-			builder = DelimitedParserBuilder.machine(",","\"");
-			return parse(ErrorHandler.DEBUG);
+			return machine(",","\"",null).parse(ErrorHandler.DEBUG);
 		}
 
 		/**
@@ -199,8 +677,7 @@ public class Delimited {
 		 * @return
 		 */
 		public Content tsv() {
-			builder = DelimitedParserBuilder.machine("\t");
-			return parse(ErrorHandler.DEBUG);
+			return machine("\t",null,null).parse(ErrorHandler.DEBUG);
 		}
 
 		/**
@@ -208,8 +685,7 @@ public class Delimited {
 		 * @return
 		 */
 		public Content pipe() {
-			builder = DelimitedParserBuilder.machine("|");
-			return parse(ErrorHandler.DEBUG);
+			return machine("|",null,null).parse(ErrorHandler.DEBUG);
 		}
 
 		/**
@@ -217,38 +693,77 @@ public class Delimited {
 		 * @return
 		 */
 		public Content space() {
-			builder = DelimitedParserBuilder.machine(" ");
-			return parse(ErrorHandler.DEBUG);
+			return machine(" ",null,null).parse(ErrorHandler.DEBUG);
 		}
 
 		public Format separatedByUnenclosed(String sep) {
-			builder = DelimitedParserBuilder.machine(sep);
-			return this;
+			return machine(sep,null,null);
 		}
 
 		public Format separatedByEnclosedWith(String sep, String enc) {
-			builder = DelimitedParserBuilder.machine(sep,enc);
-			return this;
+			return machine(sep,enc,null);
 		}
 		
 		public Format separatedByEnclosedWithEscapedBy(String sep, String enc, String esc) {
-			builder = DelimitedParserBuilder.machine(sep,enc,esc);
-			return this;
+			return machine(sep,enc,esc);
 		}
 		
 		public Format terminator(String term) {
 			builder.lineEnding(term);
+			terminator = term;
+			return this;
+		}
+		
+		/**
+		 * Report the rows, fields and bytes read, parse errors and the time spent parsing and building the 
+		 * contents to a listener. Counts are reported when the file is closed, and times by the methods 
+		 * that read the whole file, such as {@link Delimited#getContents()}, {@link Delimited#getTable()} 
+		 * and {@link Delimited#visitRows(RowVisitor)}.
+		 * @param listener
+		 * @return
+		 */
+		public Format metrics(MetricsListener listener) {
+			out.metrics = listener;
 			return this;
 		}
 		
 		public Format alwaysEnclosed() {
 			builder.mandatoryEnclosure();
+			mandatoryEnclosure = true;
 			return this;
 		}
 
+		//a new state machine starts from the default line ending and enclosure options
+		private Format machine(String sep, String enc, String esc) {
+			if (enc == null) builder = DelimitedParserBuilder.machine(sep);
+			else if (esc == null) builder = DelimitedParserBuilder.machine(sep,enc);
+			else builder = DelimitedParserBuilder.machine(sep,enc,esc);
+			separator = sep;
+			enclosure = enc;
+			escape = esc;
+			builder.lineEnding(DEFAULT_TERMINATOR);
+			terminator = DEFAULT_TERMINATOR;
+			mandatoryEnclosure = false;
+			return this;
+		}
 		
 	}
 
+	/**
+	 * A callback for each row of a delimited file, see {@link Delimited#visitRows(RowVisitor)}.
+	 * @author terminological
+	 *
+	 */
+	@FunctionalInterface
+	public static interface RowVisitor {
+		/**
+		 * @param recordNumber the zero based record number, excluding any header row, as for {@link Content#next()}
+		 * @param fields the values of the row by column index. The list is only valid for the duration of the call and must not be modified.
+		 * @return true to continue visiting rows, false to stop
+		 */
+		public boolean onRow(long recordNumber, List<String> fields);
+	}
+
 	/**
 	 * Thrown if a label cannot be extracted from the csv file itself.
 	 * @author terminological
@@ -257,6 +772,37 @@ public class Delimited {
 	public static class LabelNotAvailableException extends RuntimeException {
 		protected LabelNotAvailableException(Exception e) {super(e);}
 	}
+	
+	/**
+	 * Thrown from lazily evaluated streams if a line of the file cannot be parsed.
+	 * @author terminological
+	 *
+	 */
+	public static class UncheckedParserException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		protected UncheckedParserException(ParserException e) {super(e);}
+		public ParserException getCause() {return (ParserException) super.getCause();}
+	}
+	
+	/**
+	 * Thrown if a field of a typed column cannot be parsed to the declared type. The cause is the 
+	 * {@link NumberFormatException} or {@link java.time.format.DateTimeParseException} from parsing the value, 
+	 * which is the same whichever engine parsed the file. 
+	 * @author terminological
+	 *
+	 */
+	public static class ValueFormatException extends IllegalArgumentException {
+		private static final long serialVersionUID = 1L;
+		private final long recordNumber;
+		private final String label;
+		protected ValueFormatException(long recordNumber, String label, RuntimeException e) {
+			super("Record "+recordNumber+" has an invalid value for "+label+": "+e.getMessage(), e);
+			this.recordNumber = recordNumber;
+			this.label = label;
+		}
+		public long getRecordNumber() {return recordNumber;}
+		public String getLabel() {return label;}
+	}
 
 	/**
 	 * The content configuration allows us to specify the different types of csv file.
@@ -273,8 +819,17 @@ public class Delimited {
 		private Delimited csv;
 		private Optional<List<String>> labelMap = Optional.empty();
 		private Optional<Integer> idLabel = Optional.of(0); //entity id is in first column if empty it is record number
-		private Long recordNumber = -1L;
+		private long recordNumber = -1L;
 		Optional<String> nullValue = Optional.of("");
+		//built on first use from the labels, and replaced by a wider index for wider unlabelled rows, which may
+		//happen on the conversion workers of a pipelined parser
+		private final AtomicReference<ColumnIndex> columnIndex = new AtomicReference<>();
+		private Optional<StringDictionary> dictionary = Optional.empty();
+		private List<String> projectedLabels = new ArrayList<>();
+		private List<ColumnType> projectedTypes = new ArrayList<>();
+		private int[] projectedColumns = null; //resolved on first use from the labels
+		private String[] projectedLabelArray;
+		private ColumnType[] projectedTypeArray;
 
 		protected Content(Delimited csv) {
 			this.csv = csv;
@@ -282,14 +837,53 @@ public class Delimited {
 
 		public Content notNullable() {
 			this.nullValue = Optional.empty();
+			this.columnIndex.set(null);
 			return this;
 		}
 		
 		public Content nullable(String nullValue) {
 			this.nullValue = Optional.ofNullable(nullValue);
+			this.columnIndex.set(null);
+			return this;
+		}
+		
+		/**
+		 * Deduplicate repeated values as they are parsed using a dictionary shared by all columns, holding 
+		 * at most maxSize distinct values. This requires every field of the file to be decoded. 
+		 * @param maxSize
+		 * @return
+		 */
+		public Content dictionary(int maxSize) {
+			return dictionary(StringDictionary.global(maxSize));
+		}
+		
+		/**
+		 * Deduplicate repeated values as they are parsed using a separate dictionary for each column, holding 
+		 * at most maxSizePerColumn distinct values. This requires every field of the file to be decoded.
+		 * @param maxSizePerColumn
+		 * @return
+		 */
+		public Content dictionaryPerColumn(int maxSizePerColumn) {
+			return dictionary(StringDictionary.perColumn(maxSizePerColumn));
+		}
+		
+		/**
+		 * Deduplicate repeated values as they are parsed using the given dictionary
+		 * @param dictionary
+		 * @return
+		 */
+		public Content dictionary(StringDictionary dictionary) {
+			this.dictionary = Optional.of(dictionary);
 			return this;
 		}
 		
+		/**
+		 * @return the dictionary in use, from which hit rates can be found
+		 */
+		public Optional<StringDictionary> getDictionary() {
+			return dictionary;
+		}
+		
 		/**
 		 * configure the column with this label as the identifier for each row. This enforces the labelled
 		 * property on the configuration, and if nothing else is specified this will default to using the first 
@@ -337,13 +931,15 @@ public class Delimited {
 		 * Instruct parser to use the given labels for the columns of the csv file.
 		 * If the number labels do not match the size of any given row then an exception will
 		 * be raised.
-		 * if duplicate labels are present only the last column will be present in the final parsed data
+		 * if duplicate labels are present only the last column which is not null will be present in the final parsed data
 		 *  
 		 * @return
 		 */
 		public Content withLabels(String... strings)  {
 			labelled = true;
 			labelMap = Optional.of(Arrays.asList(strings));
+			columnIndex.set(null);
+			projectedColumns = null;
 			return this;
 		}
 
@@ -377,10 +973,27 @@ public class Delimited {
 		public Content noLabels(int identifierColumn) {
 			labelled = false;
 			labelMap = Optional.empty();
+			columnIndex.set(null);
+			projectedColumns = null;
 			idLabel = Optional.of(identifierColumn);
 			return this;
 		}
 
+		/**
+		 * Declare a column to be included in the typed rows from {@link Delimited#streamTypedRows()}, and the type 
+		 * it should be parsed to. Columns appear in typed rows in the order they are declared. If no columns are 
+		 * declared all columns are included as strings. Without labels the label is the zero based column index.  
+		 * @param label
+		 * @param type
+		 * @return
+		 */
+		public Content column(String label, ColumnType type) {
+			projectedLabels.add(label);
+			projectedTypes.add(type);
+			projectedColumns = null;
+			return this;
+		}
+
 		/**
 		 * return a fully configured parser which can be used to read content.
 		 * @return
@@ -407,47 +1020,64 @@ public class Delimited {
 		//string is either labels (if they are defined) or list index number as String
 		//empty strings are treated as missing values and omitted for consistency with the 
 		//Excel parser.
-		private Map<String,String> label(List<String> values) {
-			Map<String,String> out = new LinkedHashMap<>();
-			Iterator<String> i1 = 
-					labelMap
-						.map(l -> l.iterator())
-						.orElse(
-							// an iterator of "0","1","2",..., "n-1", "n" for labels if none defined 
-							new Iterator<String>() {
-								int count = -1;
-								@Override
-								public boolean hasNext() {
-									return count+1 < values.size();
-								}
-								@Override
-								public String next() {
-									count++;
-									return ""+count;
-								}
-							}
-						);
-			Iterator<String> i2 = values.iterator();
-			while (i1.hasNext() || i2.hasNext()) {
-				String value = i2.next();
-				String key = i1.next();
-				if (nullValue.isPresent() && value.equals(nullValue.get())) {
-					// out.put(i1.next(), null);
-				} else {
-					out.put(key, value);
-				}
+		//the map is a view of the values using a column index shared by all rows. 
+		private Map<String,String> label(long recordNumber, List<String> values) {
+			ColumnIndex index = columnIndex.get();
+			while (index == null || (!index.labelled && index.width < values.size())) {
+				ColumnIndex wider = labelMap
+						.map(l -> ColumnIndex.labelled(l, nullValue.orElse(null)))
+						.orElse(ColumnIndex.unlabelled(values.size(), nullValue.orElse(null)));
+				//another worker may have replaced the index with one that is still too narrow for this row
+				index = columnIndex.compareAndSet(index, wider) ? wider : columnIndex.get();
 			}
-			return out;
+			if (index.labelled && index.width != values.size()) throw new NoSuchElementException(
+					"Record "+recordNumber+" has "+values.size()+" values but there are "+index.width+" labels");
+			return new LabelledRow(index, values);
 		}
 
+		//parse the projected columns of the raw values
+		private TypedRow typed(long recordNumber, List<String> values) {
+			if (projectedColumns == null) {
+				List<String> labels = projectedLabels;
+				List<ColumnType> types = projectedTypes;
+				if (labels.isEmpty()) {
+					labels = labelMap.orElseGet(() -> IntStream.range(0, values.size()).mapToObj(Integer::toString).collect(Collectors.toList()));
+					types = Collections.nCopies(labels.size(), ColumnType.STRING);
+				}
+				ColumnIndex lookup = labelMap.map(l -> ColumnIndex.labelled(l, null)).orElse(null);
+				int[] columns = new int[labels.size()];
+				for (int i=0; i<columns.length; i++) {
+					String label = labels.get(i);
+					if (lookup != null) {
+						columns[i] = lookup.column(label);
+						if (columns[i] < 0) throw new NoSuchElementException("No column is labelled "+label);
+					} else {
+						try {
+							columns[i] = Integer.parseInt(label);
+						} catch (NumberFormatException e) {
+							throw new NoSuchElementException("Unlabelled columns are identified by index, not "+label);
+						}
+					}
+				}
+				projectedLabelArray = labels.toArray(new String[labels.size()]);
+				projectedTypeArray = types.toArray(new ColumnType[types.size()]);
+				projectedColumns = columns;
+			}
+			return TypedRow.parse(recordNumber, values, projectedColumns, projectedLabelArray, projectedTypeArray, nullValue.orElse(null));
+		}
+		
 		//if the identifier is a column in the data then 
 		//lookup the identifier in the data otherwise
 		//use the record number from readLine()
 		//convert the list of values to a map
 		protected Tuple<String, Map<String,String>> convertLine(Tuple<Long,List<String>> raw) throws StateMachineException {
 			return Tuple.create(
-					this.idLabel.map(l -> raw.getValue().get(l)).orElse(raw.getKey().toString()), 
-					label(raw.getValue()));
+					identifier(raw.getKey(), raw.getValue()), 
+					label(raw.getKey(), raw.getValue()));
+		}
+		
+		private String identifier(long recordNumber, List<String> values) {
+			return this.idLabel.isPresent() ? values.get(this.idLabel.get()) : Long.toString(recordNumber);
 		}
 
 		@Override
@@ -455,15 +1085,180 @@ public class Delimited {
 			return parser.hasNext();
 		}
 
+		//the next row values without wrapping
+		List<String> nextValues() throws ParserException {
+			List<String> out = intern(parser.next().get());
+			recordNumber += 1;
+			csv.count(out);
+			return out;
+		}
+
 		@Override
 		public Deferred<Tuple<Long, List<String>>, ParserException> next() {
 			return parser.next().map(p -> {
 				Content.this.recordNumber +=1;
-				return Tuple.create(Content.this.recordNumber, p);
+				csv.count(p);
+				return Tuple.create(Content.this.recordNumber, intern(p));
 			});
 		}
 		
+		//replace the values with the dictionary values if there is one
+		private List<String> intern(List<String> values) {
+			if (!dictionary.isPresent()) return values;
+			String[] out = new String[values.size()];
+			for (int i=0; i<out.length; i++) out[i] = dictionary.get().intern(i, values.get(i));
+			return Arrays.asList(out);
+		}
+		
+		
+	}
+
+	/**
+	 * An immutable mapping between labels and column indexes which is computed once and shared by every
+	 * labelled row. Where labels are duplicated the label has the value of its last column which is not null,
+	 * as if the values were put into a map in column order, but retains the position of its first occurrence. 
+	 * @author terminological
+	 *
+	 */
+	static class ColumnIndex {
 		
+		final boolean labelled;
+		final int width;
+		final String[] labels; //distinct labels in order of first occurrence
+		final int[][] columns; //the columns of each distinct label in order
+		final Map<String,Integer> lookup; //label to position in the distinct labels
+		final String nullValue;
+		
+		private ColumnIndex(boolean labelled, List<String> labelList, String nullValue) {
+			this.labelled = labelled;
+			this.width = labelList.size();
+			this.nullValue = nullValue;
+			this.lookup = new HashMap<>();
+			List<String> distinct = new ArrayList<>();
+			List<List<Integer>> distinctColumns = new ArrayList<>();
+			for (int i=0; i<labelList.size(); i++) {
+				Integer position = lookup.get(labelList.get(i));
+				if (position == null) {
+					position = distinct.size();
+					lookup.put(labelList.get(i), position);
+					distinct.add(labelList.get(i));
+					distinctColumns.add(new ArrayList<>(1));
+				}
+				distinctColumns.get(position).add(i);
+			}
+			this.labels = distinct.toArray(new String[distinct.size()]);
+			this.columns = new int[labels.length][];
+			for (int i=0; i<labels.length; i++) columns[i] = distinctColumns.get(i).stream().mapToInt(Integer::intValue).toArray();
+		}
+		
+		static ColumnIndex labelled(List<String> labels, String nullValue) {
+			return new ColumnIndex(true, labels, nullValue);
+		}
+		
+		// labels of "0","1","2",..., "n-1" for rows without labels
+		static ColumnIndex unlabelled(int width, String nullValue) {
+			List<String> labels = new ArrayList<>(width);
+			for (int i=0; i<width; i++) labels.add(Integer.toString(i));
+			return new ColumnIndex(false, labels, nullValue);
+		}
+		
+		/**
+		 * @return the last column with the label, or -1 if there is none
+		 */
+		int column(String label) {
+			Integer position = lookup.get(label);
+			if (position == null) return -1;
+			int[] c = columns[position];
+			return c[c.length-1];
+		}
+		
+		boolean isNull(String value) {
+			return value == null || value.equals(nullValue);
+		}
+	}
+	
+	/**
+	 * A read only map view of the values of a row using a shared column index. Null values are
+	 * omitted from the map. 
+	 * @author terminological
+	 *
+	 */
+	static class LabelledRow extends AbstractMap<String,String> {
+		
+		private final ColumnIndex index;
+		private final List<String> values;
+		
+		LabelledRow(ColumnIndex index, List<String> values) {
+			this.index = index;
+			this.values = values;
+		}
+		
+		//the value of the last column of a distinct label which is not null, or null
+		private String value(int label) {
+			int[] columns = index.columns[label];
+			for (int i=columns.length-1; i>=0; i--) {
+				if (columns[i] >= values.size()) continue;
+				String value = values.get(columns[i]);
+				if (!index.isNull(value)) return value;
+			}
+			return null;
+		}
+		
+		@Override
+		public String get(Object key) {
+			Integer label = index.lookup.get(key);
+			return label == null ? null : value(label);
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+		
+		@Override
+		public void forEach(BiConsumer<? super String, ? super String> action) {
+			for (int i=0; i<index.labels.length; i++) {
+				String value = value(i);
+				if (value != null) action.accept(index.labels[i], value);
+			}
+		}
+		
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					return new Iterator<Entry<String, String>>() {
+						int next = -1;
+						String value = advance();
+						private String advance() {
+							String out = null;
+							while (out == null && ++next < index.labels.length) out = value(next);
+							return out;
+						}
+						@Override
+						public boolean hasNext() {
+							return next < index.labels.length;
+						}
+						@Override
+						public Entry<String, String> next() {
+							if (!hasNext()) throw new NoSuchElementException();
+							Entry<String,String> out = new SimpleImmutableEntry<>(index.labels[next], value);
+							value = advance();
+							return out;
+						}
+					};
+				}
+				@Override
+				public int size() {
+					int size = 0;
+					for (int i=0; i<index.labels.length; i++) {
+						if (value(i) != null) size++;
+					}
+					return size;
+				}
+			};
+		}
 	}
 
 }
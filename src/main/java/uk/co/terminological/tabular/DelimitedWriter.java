@@ -0,0 +1,467 @@
+package uk.co.terminological.tabular;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import uk.co.terminological.datatypes.EavMap;
+import uk.co.terminological.tabular.MetricsListener.Phase;
+
+/**
+ * Writes delimited data in the formats read by {@link Delimited}. The format is configured in the same way as
+ * {@link Delimited.Format}, and defaults to a csv file with unix line endings. Fields are only enclosed if they
+ * contain the separator, enclosure, escape or a line ending, unless {@link #alwaysEnclosed()} is set. Within an
+ * enclosed field the enclosure is doubled, or preceded by the escape if there is one.
+ *
+ * Fields are copied straight into a reusable character buffer, so no strings are built per row, and the buffer is
+ * written to the output when it is full. Whole numbers are written into the buffer digit by digit. Null values
+ * are written as empty fields, dates in the ISO format used for Excel dates, and other values as their string
+ * representation. The writer must be closed to flush the buffer.
+ * @author terminological
+ *
+ */
+public class DelimitedWriter implements Closeable, Flushable {
+
+	private final Writer out;
+	private final char[] buffer;
+	private int position = 0;
+
+	private String separator = ",";
+	private String enclosure = "\"";
+	private String escape = null;
+	private String terminator = "\n";
+	private boolean mandatoryEnclosure = false;
+	private boolean[] special = null; //the characters which may need a field to be enclosed, found on first use
+	private boolean plainDigits; //whether the digits of a whole number never need to be enclosed
+
+	private MetricsListener metrics = MetricsListener.NONE;
+	private String source = "output";
+	private long rows = 0;
+	private long cells = 0;
+	private long nanos = 0;
+
+	/**
+	 * Write delimited data to a file in the platform default character set
+	 * @param file
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public static DelimitedWriter toFile(File file) throws FileNotFoundException {
+		return toFile(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Write delimited data to a file in a given character set
+	 * @param file
+	 * @param charset
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public static DelimitedWriter toFile(File file, Charset charset) throws FileNotFoundException {
+		return toFile(file, charset, Delimited.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Write delimited data to a file in a given character set, encoding directly to the file channel from
+	 * a buffer of the given size
+	 * @param file
+	 * @param charset
+	 * @param bufferSize
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public static DelimitedWriter toFile(File file, Charset charset, int bufferSize) throws FileNotFoundException {
+		DelimitedWriter out = toChannel(new FileOutputStream(file).getChannel(), charset, bufferSize);
+		out.source = file.getPath();
+		return out;
+	}
+
+	/**
+	 * Write delimited data to a stream in a given character set
+	 * @param os
+	 * @param charset
+	 * @return
+	 */
+	public static DelimitedWriter toStream(OutputStream os, Charset charset) {
+		return toStream(os, charset, Delimited.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Write delimited data to a stream in a given character set through a buffer of the given size
+	 * @param os
+	 * @param charset
+	 * @param bufferSize
+	 * @return
+	 */
+	public static DelimitedWriter toStream(OutputStream os, Charset charset, int bufferSize) {
+		return toChannel(Channels.newChannel(os), charset, bufferSize);
+	}
+
+	//encodes the whole buffer at once straight to the channel
+	private static DelimitedWriter toChannel(WritableByteChannel channel, Charset charset, int bufferSize) {
+		return new DelimitedWriter(Channels.newWriter(channel, charset.newEncoder(), bufferSize), bufferSize);
+	}
+
+	/**
+	 * Write delimited data to a writer, through a buffer of {@link Delimited#DEFAULT_BUFFER_SIZE} characters
+	 * @param writer
+	 * @return
+	 */
+	public static DelimitedWriter toWriter(Writer writer) {
+		return new DelimitedWriter(writer, Delimited.DEFAULT_BUFFER_SIZE);
+	}
+
+	private DelimitedWriter(Writer out, int bufferSize) {
+		this.out = out;
+		this.buffer = new char[Math.max(bufferSize, 32)]; //room for the digits of any whole number
+	}
+
+	public DelimitedWriter windows() {
+		return terminator("\r\n");
+	}
+
+	public DelimitedWriter unix() {
+		return terminator("\n");
+	}
+
+	/**
+	 * Convenience method for a csv file
+	 * @return
+	 */
+	public DelimitedWriter csv() {
+		return format(",", "\"", null);
+	}
+
+	/**
+	 * Convenience method for a tab separated file
+	 * @return
+	 */
+	public DelimitedWriter tsv() {
+		return format("\t", null, null);
+	}
+
+	/**
+	 * Convenience method for a pipe separated file
+	 * @return
+	 */
+	public DelimitedWriter pipe() {
+		return format("|", null, null);
+	}
+
+	/**
+	 * Convenience method for a space separated file
+	 * @return
+	 */
+	public DelimitedWriter space() {
+		return format(" ", null, null);
+	}
+
+	public DelimitedWriter separatedByUnenclosed(String sep) {
+		return format(sep, null, null);
+	}
+
+	public DelimitedWriter separatedByEnclosedWith(String sep, String enc) {
+		return format(sep, enc, null);
+	}
+
+	public DelimitedWriter separatedByEnclosedWithEscapedBy(String sep, String enc, String esc) {
+		return format(sep, enc, esc);
+	}
+
+	public DelimitedWriter terminator(String term) {
+		terminator = term;
+		special = null;
+		return this;
+	}
+
+	/**
+	 * Enclose every field, including empty ones
+	 * @return
+	 */
+	public DelimitedWriter alwaysEnclosed() {
+		if (enclosure == null) throw new IllegalStateException("The format has no enclosure");
+		mandatoryEnclosure = true;
+		return this;
+	}
+
+	/**
+	 * Report the rows and fields written and the time spent writing to a listener when the writer is closed
+	 * @param listener
+	 * @return
+	 */
+	public DelimitedWriter metrics(MetricsListener listener) {
+		metrics = listener;
+		return this;
+	}
+
+	//as for Delimited.Format the line ending is reset to the default when the dialect changes
+	private DelimitedWriter format(String sep, String enc, String esc) {
+		separator = sep;
+		enclosure = enc;
+		escape = esc;
+		terminator = "\n";
+		mandatoryEnclosure = false;
+		special = null;
+		return this;
+	}
+
+	/**
+	 * Writes a row of values
+	 * @param values
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException if a value needs to be enclosed but the format has no enclosure
+	 */
+	public DelimitedWriter writeRow(List<?> values) throws IOException {
+		long start = metrics == MetricsListener.NONE ? 0 : System.nanoTime();
+		writeFields(values);
+		rows++;
+		cells += values.size();
+		if (start != 0) nanos += System.nanoTime() - start;
+		return this;
+	}
+
+	/**
+	 * Writes a row of values, for writing the rows of a stream as they are produced
+	 * with {@code rows.forEach(writer::accept)}
+	 * @param values
+	 * @throws UncheckedIOException if the row cannot be written
+	 */
+	public void accept(List<?> values) {
+		try {
+			writeRow(values);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeFields(List<?> values) throws IOException {
+		boolean first = true;
+		for (Object value: values) {
+			if (!first) append(separator);
+			first = false;
+			writeField(value);
+		}
+		append(terminator);
+	}
+
+	/**
+	 * Writes rows of values from an iterator
+	 * @param rows
+	 * @return the number of rows written
+	 * @throws IOException
+	 */
+	public long write(Iterator<? extends List<?>> rows) throws IOException {
+		long count = 0;
+		while (rows.hasNext()) {
+			writeRow(rows.next());
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes rows of values from a stream, which is closed afterwards
+	 * @param rows
+	 * @return the number of rows written
+	 * @throws IOException
+	 */
+	public long write(Stream<? extends List<?>> rows) throws IOException {
+		try (Stream<? extends List<?>> tmp = rows) {
+			return write(tmp.iterator());
+		}
+	}
+
+	/**
+	 * Writes an EAV map with a header row, and a row for each entity with its name in the first column and
+	 * the values of its attributes in the given order, as {@link Excel#addSheet(String, EavMap, List)} does.
+	 * Attributes that are not in the sort order are not written.
+	 * @param map
+	 * @param sortOrder
+	 * @return the number of rows written, excluding the header
+	 * @throws IOException
+	 */
+	public <E,A,V> long write(EavMap<E,A,V> map, List<A> sortOrder) throws IOException {
+		Map<A,Integer> index = new HashMap<>();
+		List<Object> header = new ArrayList<>(sortOrder.size()+1);
+		header.add("entity name");
+		for (A o: sortOrder) {
+			index.putIfAbsent(o, header.size());
+			header.add(o);
+		}
+		writeFields(header);
+		Object[] row = new Object[header.size()];
+		List<Object> values = Arrays.asList(row);
+		long count = 0;
+		for (E entity: map.getEntitySet()) {
+			Arrays.fill(row, null);
+			row[0] = entity;
+			for (A att: map.getAttributeSet(entity)) {
+				Integer i = index.get(att);
+				if (i != null && map.containsKey(entity, att)) row[i] = map.get(entity, att);
+			}
+			writeRow(values);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes an EAV map with its attributes in the order of {@link EavMap#getAttributeSet()}
+	 * @param map
+	 * @return the number of rows written, excluding the header
+	 * @throws IOException
+	 */
+	public <E,A,V> long write(EavMap<E,A,V> map) throws IOException {
+		return write(map, new ArrayList<A>(map.getAttributeSet()));
+	}
+
+	private void writeField(Object value) throws IOException {
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			if (special == null) findSpecialCharacters();
+			if (plainDigits) {
+				writeWhole(((Number) value).longValue());
+				return;
+			}
+		}
+		String s = value == null ? "" : value instanceof Date ? CellFormat.date((Date) value) : value.toString();
+		if (mandatoryEnclosure || needsEnclosure(s)) {
+			if (enclosure == null) throw new IllegalArgumentException("The value "+s+" contains a separator or line ending but the format has no enclosure");
+			append(enclosure);
+			char enc = enclosure.charAt(0);
+			char esc = escape == null ? enc : escape.charAt(0);
+			int from = 0;
+			for (int i=0; i<s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == enc || c == esc) {
+					append(s, from, i);
+					append(esc);
+					from = i;
+				}
+			}
+			append(s, from, s.length());
+			append(enclosure);
+		} else {
+			append(s, 0, s.length());
+		}
+	}
+
+	//writes the digits of a whole number straight into the buffer
+	private void writeWhole(long value) throws IOException {
+		if (mandatoryEnclosure) append(enclosure);
+		if (buffer.length - position < 20) flushBuffer();
+		position = digits(value, buffer, position);
+		if (mandatoryEnclosure) append(enclosure);
+	}
+
+	/**
+	 * Writes the decimal digits of a whole number into a buffer, as {@link Long#toString(long)} formats it,
+	 * without building a string. There must be room for 20 characters.
+	 * @return the position after the last character
+	 */
+	private static int digits(long value, char[] buffer, int offset) {
+		int length = value < 0 ? 2 : 1;
+		for (long v = value / 10; v != 0; v /= 10) length++;
+		int i = offset + length;
+		//counting in negative numbers, which include Long.MIN_VALUE
+		long v = value < 0 ? value : -value;
+		do {
+			buffer[--i] = (char) ('0' - v % 10);
+			v /= 10;
+		} while (v != 0);
+		if (value < 0) buffer[--i] = '-';
+		return offset + length;
+	}
+
+	//a fast scan for any character which starts a separator, enclosure, escape or line ending
+	private boolean needsEnclosure(String s) {
+		if (special == null) findSpecialCharacters();
+		for (int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < special.length && special[c]) return enclosure != null || contains(s);
+		}
+		return false;
+	}
+
+	//without an enclosure a field is only invalid if it contains a whole separator or line ending
+	private boolean contains(String s) {
+		return s.contains(separator) || s.contains(terminator) || s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0;
+	}
+
+	private void findSpecialCharacters() {
+		StringBuilder chars = new StringBuilder("\r\n").append(separator.charAt(0)).append(terminator.charAt(0));
+		if (enclosure != null) chars.append(enclosure.charAt(0));
+		if (escape != null) chars.append(escape.charAt(0));
+		char max = 0;
+		for (int i=0; i<chars.length(); i++) max = (char) Math.max(max, chars.charAt(i));
+		boolean[] out = new boolean[max+1];
+		for (int i=0; i<chars.length(); i++) out[chars.charAt(i)] = true;
+		special = out;
+		plainDigits = true;
+		for (char c: "-0123456789".toCharArray()) plainDigits &= c >= out.length || !out[c];
+	}
+
+	private void append(char c) throws IOException {
+		if (position == buffer.length) flushBuffer();
+		buffer[position++] = c;
+	}
+
+	private void append(String s) throws IOException {
+		append(s, 0, s.length());
+	}
+
+	private void append(String s, int from, int to) throws IOException {
+		while (from < to) {
+			if (position == buffer.length) flushBuffer();
+			int n = Math.min(to - from, buffer.length - position);
+			s.getChars(from, from + n, buffer, position);
+			position += n;
+			from += n;
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	/**
+	 * Flushes the buffer and closes the output
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+			out.close();
+		} finally {
+			if (metrics != MetricsListener.NONE) {
+				metrics.rows(source, rows);
+				metrics.cells(source, cells);
+				metrics.phase(source, Phase.WRITE, nanos);
+			}
+		}
+	}
+}
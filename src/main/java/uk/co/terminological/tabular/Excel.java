@@ -5,39 +5,109 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCol;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCols;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorksheet;
 
 import uk.co.terminological.datatypes.EavMap;
+import uk.co.terminological.datatypes.Tuple;
 
 public class Excel {
 
 	private Workbook excel;
+	private XlsxStreamReader streamed; //instead of the workbook when streaming
+	private XlsxStreamWriter writer; //writes the rows of sheets to temporary files in streaming mode
+	private ColumnWidths columnWidths = ColumnWidths.auto();
+	private Formulas formulas = Formulas.EVALUATE;
+	//shared by all the sheets read on a thread, as evaluators are not thread safe
+	private final ThreadLocal<FormulaEvaluator> evaluator = new ThreadLocal<>();
+	private final List<FormulaEvaluator> evaluators = new CopyOnWriteArrayList<>();
+	private final SheetCache cache = new SheetCache(Runtime.getRuntime().maxMemory()/4);
+	private CellFormat format = new CellFormat(false);
+	private MetricsListener metrics = MetricsListener.NONE;
+	private String source = "input"; //the file read, for metrics
+	private long openNanos = 0;
+	private long openBytes = -1;
 	
 	private Excel() {}
 	
 	public static Excel fromFile(File file) throws IOException {
-		return Excel.fromStream(new FileInputStream(file));
+		Excel out = Excel.fromStream(new FileInputStream(file));
+		out.source = file.getPath();
+		out.openBytes = file.length();
+		return out;
 	}
 	
 	public static Excel fromStream(InputStream stream) throws IOException {
 		Excel out = new Excel();
+		long start = System.nanoTime();
 		try {
 			out.excel = WorkbookFactory.create(stream);
 		} catch (InvalidFormatException e) {
 			throw new IOException(e);
 		} 
+		out.openNanos = System.nanoTime() - start;
+		return out;
+	}
+
+	/**
+	 * Opens an xlsx file for reading sheets row by row, without loading the whole workbook into memory.
+	 * Only the shared strings and cell styles of the workbook are held in memory, and the labelled contents of 
+	 * vertical sheets are read lazily by {@link ExcelSheet#streamContents()}. Formulas are not evaluated,
+	 * the results cached in the file are used instead. Cells cannot be accessed individually and the workbook 
+	 * cannot be modified. The file stays open until {@link #close()} is called.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static Excel streamFromFile(File file) throws IOException {
+		Excel out = new Excel();
+		long start = System.nanoTime();
+		out.streamed = new XlsxStreamReader(file);
+		out.openNanos = System.nanoTime() - start;
+		out.source = file.getPath();
+		out.openBytes = file.length();
 		return out;
 	}
+	
+	/**
+	 * Releases the file of a streamed workbook, or the temporary files of a streaming workbook
+	 */
+	public void close() {
+		if (streamed != null) streamed.close();
+		if (writer != null) writer.close();
+	}
 
 	public static Excel create() {
 		Excel out = new Excel();
@@ -45,21 +115,195 @@ public class Excel {
 		return out;
 	}
 	
+	/**
+	 * Creates a workbook for large exports, where the rows of each sheet are written to a temporary file as 
+	 * the sheet is added, so that memory use does not depend on the number of rows. Sheets can only be added 
+	 * from rows or an EavMap, and cannot be read back or modified once added. Columns are not auto sized.
+	 * Call {@link #close()} after writing to remove the temporary files.
+	 * @return
+	 */
+	public static Excel createStreaming() {
+		Excel out = new Excel();
+		out.writer = new XlsxStreamWriter();
+		out.excel = out.writer.getWorkbook();
+		return out;
+	}
+	
+	/**
+	 * Sets how the widths of the columns of sheets added from now on are chosen. The default is 
+	 * {@link ColumnWidths#auto()}.
+	 * @param columnWidths
+	 * @return
+	 */
+	public Excel columnWidths(ColumnWidths columnWidths) {
+		this.columnWidths = columnWidths;
+		return this;
+	}
+	
+	/**
+	 * Reports the rows and cells read and written, formula evaluations, cache sizes and the time spent reading, 
+	 * labelling and writing sheets to a listener. The size of the file and the time taken to open the workbook 
+	 * are reported when the listener is set.
+	 * @param listener
+	 * @return
+	 */
+	public Excel metrics(MetricsListener listener) {
+		this.metrics = listener;
+		if (openBytes >= 0) listener.bytes(source, openBytes);
+		if (openNanos > 0) listener.phase(source, MetricsListener.Phase.READ, openNanos);
+		return this;
+	}
+	
+	MetricsListener getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Sets how the values of formula cells are read:
+	 * <ul>
+	 * <li>{@link Formulas#EVALUATE} evaluates formulas as they are read, with one evaluator for the workbook which 
+	 * caches the values of the cells they depend on (the default)</li>
+	 * <li>{@link Formulas#EVALUATE_ALL} evaluates every formula in the workbook now and stores the result in the 
+	 * cell, after which formula cells are read as quickly as value cells. Formulas that cannot be evaluated keep 
+	 * the result saved in the file.</li>
+	 * <li>{@link Formulas#CACHED} uses the results saved in the file without evaluating anything</li>
+	 * </ul>
+	 * Each thread reading the workbook has its own evaluator, as evaluators are not thread safe. Sheets that
+	 * have already been read are dropped from the cache if the mode changes.
+	 * @param formulas
+	 * @return
+	 */
+	public Excel formulas(Formulas formulas) {
+		if (!formulas.equals(this.formulas)) cache.clear();
+		this.formulas = formulas;
+		if (formulas.equals(Formulas.EVALUATE_ALL) && excel != null) {
+			FormulaEvaluator all = evaluator();
+			Stopwatch clock = new Stopwatch(metrics);
+			long evaluations = 0;
+			for (int i = 0; i<excel.getNumberOfSheets(); i++) {
+				for (Row row: excel.getSheetAt(i)) {
+					for (Cell cell: row) {
+						if (cell.getCellType() != Cell.CELL_TYPE_FORMULA) continue;
+						evaluations++;
+						try {
+							all.evaluateFormulaCell(cell);
+						} catch (RuntimeException e) {
+							//an unsupported function, keep the result saved in the file
+						}
+					}
+				}
+			}
+			clock.lap(MetricsListener.Phase.READ);
+			clock.report(source);
+			metrics.formulaEvaluations(source, evaluations);
+		}
+		return this;
+	}
+	
+	/**
+	 * @return the evaluator used by all sheets read on this thread, or null if formulas are read from their 
+	 * cached results
+	 */
+	FormulaEvaluator getEvaluator() {
+		return formulas.equals(Formulas.EVALUATE) ? evaluator() : null;
+	}
+	
+	private FormulaEvaluator evaluator() {
+		FormulaEvaluator out = evaluator.get();
+		if (out == null) {
+			out = excel.getCreationHelper().createFormulaEvaluator();
+			evaluator.set(out);
+			evaluators.add(out);
+		}
+		return out;
+	}
+	
+	/**
+	 * Forgets the values cached by the formula evaluators of all threads
+	 */
+	void clearEvaluators() {
+		for (FormulaEvaluator e: evaluators) e.clearAllCachedResultValues();
+	}
+	
+	/**
+	 * Formats whole numbers in cells without a decimal point, e.g. 1 rather than 1.0, up to 10^15. The default
+	 * is false, which gives the same strings as {@link Double#toString(double)}. Sheets that have already been
+	 * read are dropped from the cache.
+	 * @param plainIntegers
+	 * @return
+	 */
+	public Excel plainIntegers(boolean plainIntegers) {
+		if (plainIntegers != format.isPlainIntegers()) {
+			format = new CellFormat(plainIntegers);
+			if (streamed != null) streamed.setFormat(format);
+			cache.clear();
+		}
+		return this;
+	}
+	
+	CellFormat getFormat() {
+		return format;
+	}
+	
+	/**
+	 * Sets the memory budget for the contents of sheets that have been read, which are kept by the workbook 
+	 * so that sheets fetched again with {@link #getSheet(String)} are not read again. When the budget is 
+	 * exceeded the least recently used sheets are dropped. Sizes are estimated from the number and length 
+	 * of the cell values. The default is a quarter of the maximum heap, and 0 disables the cache.
+	 * Use {@link ExcelSheet#recalc()} to re-read a sheet.
+	 * @param maxBytes
+	 * @return
+	 */
+	public Excel cacheSize(long maxBytes) {
+		cache.setMaxBytes(maxBytes);
+		return this;
+	}
+	
+	/**
+	 * Drops the cached contents of all sheets
+	 * @return
+	 */
+	public Excel clearCache() {
+		cache.clear();
+		return this;
+	}
+	
+	/**
+	 * @return the estimated size in bytes of the cached contents of sheets
+	 */
+	public long getCacheBytes() {
+		return cache.getBytes();
+	}
+	
+	SheetCache getCache() {
+		return cache;
+	}
+	
+	public static enum Formulas {
+		EVALUATE,
+		EVALUATE_ALL,
+		CACHED
+	}
+	
 	public boolean hasSheet(String name) {
 		return this.getSheetnames().contains(name);
 	}
 	
 	public ExcelSheet addSheet(String name) {
+		checkWritable();
+		if (writer != null) throw new UnsupportedOperationException("A streaming workbook can only add sheets from rows");
 		Sheet sheet = excel.createSheet(name);
-		return new ExcelSheet(sheet);
+		return new ExcelSheet(sheet, this);
 	}
 	
 	public ExcelSheet getSheet(String name) {
+		if (streamed != null) return new ExcelSheet(streamed, name, this);
 		Sheet sheet = excel.getSheet(name);
-		return new ExcelSheet(sheet);
+		return new ExcelSheet(sheet, this);
 	}
 	
 	public ArrayList<String> getSheetnames() {
+		if (streamed != null) return new ArrayList<String>(streamed.getSheetnames());
 		ArrayList<String> sheetnames = new ArrayList<String>();  
 		for( int i = 0; i<excel.getNumberOfSheets(); i++) {
 			sheetnames.add(excel.getSheetName(i));
@@ -69,8 +313,12 @@ public class Excel {
 	
 	public ArrayList<ExcelSheet> getSheets() {
 		ArrayList<ExcelSheet> sheetnames = new ArrayList<ExcelSheet>();  
+		if (streamed != null) {
+			for (String name: streamed.getSheetnames()) sheetnames.add(new ExcelSheet(streamed, name, this));
+			return sheetnames;
+		}
 		for( int i = 0; i<excel.getNumberOfSheets(); i++) {
-			sheetnames.add(new ExcelSheet(excel.getSheetAt(i)));
+			sheetnames.add(new ExcelSheet(excel.getSheetAt(i), this));
 		}
 		return sheetnames;
 	}
@@ -79,50 +327,415 @@ public class Excel {
 		return this.getSheets().stream();
 	}
 	
+	/**
+	 * Converts the sheets concurrently on the executor, returning the results in sheet order as each becomes
+	 * available. Only as many sheets as the executor has threads are converted ahead of the stream, so the 
+	 * contents of the other sheets are not all held at once. The first sheets are submitted when the stream 
+	 * is created.
+	 * 
+	 * The cache of sheet contents is synchronised and each thread evaluates formulas with its own evaluator. 
+	 * POI workbooks are not safe for concurrent reads, so cells are read from the workbook object model one 
+	 * sheet at a time, and only labelling and building the results runs concurrently. A streamed workbook 
+	 * ({@link #streamFromFile(File)}) reads each sheet from its own part of the file, so its sheets are read 
+	 * concurrently too. The workbook must not be modified while the conversions run, and the function should 
+	 * not share unsynchronised state between sheets, such as a {@link StringDictionary} set on more than one sheet.
+	 * @param extract for example ExcelSheet::getContents, applied to a new ExcelSheet for each sheet
+	 * @param executor
+	 * @return the sheet name and result of the function for each sheet. If a conversion fails its exception is 
+	 * thrown when the stream reaches that sheet, wrapped in a {@link CompletionException}.
+	 */
+	public <X> Stream<Tuple<String,X>> stream(Function<ExcelSheet,X> extract, Executor executor) {
+		List<ExcelSheet> sheets = getSheets();
+		int ahead = parallelism(executor);
+		Iterator<Tuple<String,X>> out = new Iterator<Tuple<String,X>>() {
+
+			final LinkedList<Tuple<String,CompletableFuture<X>>> inFlight = new LinkedList<>();
+			int next = 0;
+
+			{
+				submit();
+			}
+
+			//keep the executor busy with the sheets after the ones the stream has reached
+			private void submit() {
+				while (inFlight.size() < ahead && next < sheets.size()) {
+					ExcelSheet sheet = sheets.get(next++);
+					inFlight.add(Tuple.create(sheet.getName(), CompletableFuture.supplyAsync(() -> extract.apply(sheet), executor)));
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return !inFlight.isEmpty();
+			}
+
+			@Override
+			public Tuple<String,X> next() {
+				if (inFlight.isEmpty()) throw new NoSuchElementException();
+				Tuple<String,CompletableFuture<X>> first = inFlight.removeFirst();
+				submit();
+				return Tuple.create(first.getFirst(), first.getSecond().join());
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliterator(out, sheets.size(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	//the number of threads of an executor, or of the machine if it is not known
+	private static int parallelism(Executor executor) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (executor instanceof ForkJoinPool) return ((ForkJoinPool) executor).getParallelism();
+		if (executor instanceof ThreadPoolExecutor) return Math.max(1, Math.min(((ThreadPoolExecutor) executor).getMaximumPoolSize(), processors));
+		return processors;
+	}
+	
+	/**
+	 * Converts every sheet concurrently on the common fork join pool, see {@link #stream(Function, Executor)}.
+	 */
+	public <X> Stream<Tuple<String,X>> stream(Function<ExcelSheet,X> extract) {
+		return stream(extract, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Converts every sheet concurrently on the executor, see {@link #stream(Function, Executor)}.
+	 * @return the results by sheet name in sheet order
+	 */
+	public <X> Map<String,X> extract(Function<ExcelSheet,X> extract, Executor executor) {
+		Map<String,X> out = new LinkedHashMap<>();
+		stream(extract, executor).forEach(t -> out.put(t.getFirst(), t.getSecond()));
+		return out;
+	}
+	
+	/**
+	 * Converts every sheet to an EAV map of its labelled contents concurrently with the default configuration, 
+	 * see {@link ExcelSheet#getContents()}.
+	 * @return the contents by sheet name in sheet order
+	 */
+	public Map<String,EavMap<String,String,String>> getContents(Executor executor) {
+		return extract(ExcelSheet::getContents, executor);
+	}
+	
 	public ExcelSheet getFirst() {
-		return new ExcelSheet(excel.getSheetAt(0));
+		if (streamed != null) return new ExcelSheet(streamed, streamed.getSheetnames().get(0), this);
+		return new ExcelSheet(excel.getSheetAt(0), this);
 	}
 	
 	public <E extends Object, A extends Object, V extends Object>
 	Excel addSheet(String name, EavMap<E,A,V> map, List<A> sortOrder) {
+		checkWritable();
+		if (writer != null) {
+			try {
+				return addSheet(name, rows(map, sortOrder));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		Stopwatch clock = new Stopwatch(metrics);
+		long cells = 0;
 		Sheet out = excel.createSheet(name);
+		ColumnWidths.Estimate widths = columnWidths.estimate();
 		Row header = out.createRow(0);
-		ArrayList<A> headings = new ArrayList<A>();
-		Cell zero = header.createCell(0);
-		zero.setCellValue("entity name");
+		Map<A,Integer> index = columnIndex(sortOrder);
+		header.createCell(0).setCellValue("entity name");
+		widths.observe(0, 0, "entity name");
 		int i=1;
 		for (A o: sortOrder) {
-			headings.add(o);
-			ExcelCell cell = new ExcelCell(header.createCell(i));
+			ExcelCell.write(header.createCell(i), o);
+			widths.observe(0, i, o);
 			i++;
-			cell.setValue(o);
 		}
+		ExcelCell.ColumnWriters writers = new ExcelCell.ColumnWriters();
 		int j=1;
 		for (E entity: map.getEntitySet()) {
 			Row entityRow = out.createRow(j);
-			j++;
-			ExcelCell cell = new ExcelCell(entityRow.createCell(0));
-			cell.setValue(entity);
+			writers.write(entityRow.createCell(0), 0, entity);
+			widths.observe(j, 0, entity);
 
 			for (A att: map.getAttributeSet(entity)) {
-				int index = headings.indexOf(att)+1;
-				ExcelCell cell2 = new ExcelCell(entityRow.createCell(index));
-				if (map.containsKey(entity, att)) 
-					cell2.setValue(map.get(entity, att));
+				Integer column = index.get(att);
+				if (column == null) continue; //not in the sort order
+				Cell cell = entityRow.createCell(column);
+				if (map.containsKey(entity, att)) {
+					V value = map.get(entity, att);
+					writers.write(cell, column, value);
+					widths.observe(j, column, value);
+					cells++;
+				}
+			}
+			j++;
+		}
+		widths.apply(out);
+		clock.lap(MetricsListener.Phase.WRITE);
+		clock.report(name);
+		metrics.rows(name, j-1);
+		metrics.cells(name, cells);
+		return this;
+	}
+	
+	//the sheet column of each attribute, after the entity name column
+	private static <A> Map<A,Integer> columnIndex(List<A> sortOrder) {
+		Map<A,Integer> index = new HashMap<>();
+		int i=1;
+		for (A o: sortOrder) {
+			index.putIfAbsent(o, i);
+			i++;
+		}
+		return index;
+	}
+	
+	//the header and entity rows of a sheet as written by addSheet(String, EavMap, List)
+	private static <E,A,V> Iterator<List<Object>> rows(EavMap<E,A,V> map, List<A> sortOrder) {
+		Map<A,Integer> index = columnIndex(sortOrder);
+		List<Object> header = new ArrayList<>();
+		header.add("entity name");
+		header.addAll(sortOrder);
+		Iterator<E> entities = map.getEntitySet().iterator();
+		return new Iterator<List<Object>>() {
+			boolean first = true;
+			
+			@Override
+			public boolean hasNext() {
+				return first || entities.hasNext();
+			}
+
+			@Override
+			public List<Object> next() {
+				if (first) {
+					first = false;
+					return header;
+				}
+				E entity = entities.next();
+				Object[] row = new Object[header.size()];
+				row[0] = entity;
+				for (A att: map.getAttributeSet(entity)) {
+					Integer i = index.get(att);
+					if (i != null) row[i] = map.get(entity, att);
+				}
+				return Arrays.asList(row);
 			}
+		};
+	}
+	
+	/**
+	 * Adds a sheet from rows of values, each a list of cell values from the first column. Null values leave
+	 * the cell empty. In a streaming workbook (see {@link #createStreaming()}) the rows are written to a 
+	 * temporary file as they are consumed.
+	 * @param name
+	 * @param rows
+	 * @return
+	 * @throws IOException if the rows cannot be written to a temporary file
+	 */
+	public Excel addSheet(String name, Iterator<? extends List<?>> rows) throws IOException {
+		checkWritable();
+		Stopwatch clock = new Stopwatch(metrics);
+		if (writer != null) {
+			long written = writer.addSheet(name, rows, columnWidths);
+			clock.lap(MetricsListener.Phase.WRITE);
+			clock.report(name);
+			metrics.rows(name, written);
+			return this;
 		}
-		for (int k=0;k<headings.size();k++) {
-			out.autoSizeColumn(k);
+		Sheet out = excel.createSheet(name);
+		ColumnWidths.Estimate widths = columnWidths.estimate();
+		ExcelCell.ColumnWriters writers = new ExcelCell.ColumnWriters();
+		long cells = 0;
+		int j=0;
+		while (rows.hasNext()) {
+			Row row = out.createRow(j);
+			int i=0;
+			for (Object o: rows.next()) {
+				if (o != null) {
+					writers.write(row.createCell(i), i, o);
+					widths.observe(j, i, o);
+					cells++;
+				}
+				i++;
+			}
+			j++;
 		}
+		widths.apply(out);
+		clock.lap(MetricsListener.Phase.WRITE);
+		clock.report(name);
+		metrics.rows(name, j);
+		metrics.cells(name, cells);
 		return this;
 	}
 	
+	/**
+	 * Adds a sheet from a stream of rows, see {@link #addSheet(String, Iterator)}.
+	 * @param name
+	 * @param rows
+	 * @return
+	 * @throws IOException
+	 */
+	public Excel addSheet(String name, Stream<? extends List<?>> rows) throws IOException {
+		try (Stream<? extends List<?>> tmp = rows) {
+			return addSheet(name, tmp.iterator());
+		}
+	}
+	
 	public <E extends Object, A extends Object, V extends Object>
 	Excel addSheet(String name, EavMap<E,A,V> map) {
 		return addSheet(name, map, (List<A>) new ArrayList<A>(map.getAttributeSet()));
 	}
 	
 	public void write(File file) throws IOException {
-		excel.write(new FileOutputStream(file));
+		checkWritable();
+		Stopwatch clock = new Stopwatch(metrics);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			if (writer != null) writer.write(out);
+			else excel.write(out);
+		}
+		clock.lap(MetricsListener.Phase.WRITE);
+		clock.report(file.getPath());
+		metrics.bytes(file.getPath(), file.length());
+	}
+
+	private void checkWritable() {
+		if (streamed != null) throw new UnsupportedOperationException("A streamed workbook cannot be modified");
+	}
+
+	/**
+	 * How the widths of the columns of an exported sheet are chosen. Measuring every cell with 
+	 * {@link #auto()} is slow for large sheets, the other strategies need no extra pass over the sheet.
+	 */
+	public static class ColumnWidths {
+		
+		private static final int MAX_CHARACTERS = 255;
+		private static final int DEFAULT_SAMPLE = 100;
+		
+		private static enum Strategy {
+			AUTO,
+			NONE,
+			FIXED,
+			ESTIMATED
+		}
+		
+		private final Strategy strategy;
+		private final int characters;
+		private final int sampleRows;
+		
+		private ColumnWidths(Strategy strategy, int characters, int sampleRows) {
+			this.strategy = strategy;
+			this.characters = Math.min(characters, MAX_CHARACTERS);
+			this.sampleRows = sampleRows;
+		}
+		
+		/**
+		 * Size each column to fit its contents, as measured by POI using the font metrics of every cell.
+		 * A streaming workbook cannot measure its cells and estimates the widths from the first rows instead.
+		 */
+		public static ColumnWidths auto() {
+			return new ColumnWidths(Strategy.AUTO, 0, DEFAULT_SAMPLE);
+		}
+		
+		/**
+		 * Leave the columns at the default width
+		 */
+		public static ColumnWidths none() {
+			return new ColumnWidths(Strategy.NONE, 0, 0);
+		}
+		
+		/**
+		 * Make every column the same width 
+		 * @param characters the width in characters, at most 255
+		 */
+		public static ColumnWidths fixed(int characters) {
+			return new ColumnWidths(Strategy.FIXED, characters, 0);
+		}
+		
+		/**
+		 * Size each column to the longest string representation of the values in the first rows of the sheet,
+		 * including the header row. The lengths are recorded as the rows are written.
+		 * @param sampleRows the number of rows to measure
+		 */
+		public static ColumnWidths estimated(int sampleRows) {
+			return new ColumnWidths(Strategy.ESTIMATED, 0, sampleRows);
+		}
+		
+		Estimate estimate() {
+			return new Estimate();
+		}
+		
+		//cells written to a streaming workbook are not available to measure
+		ColumnWidths withoutMeasuring() {
+			return strategy == Strategy.AUTO ? estimated(sampleRows) : this;
+		}
+		
+		/**
+		 * The widths of a sheet being written, built up from the values in the sample rows
+		 */
+		class Estimate {
+			
+			private int[] widths = new int[16];
+			private int columns = 0;
+			
+			/**
+			 * @return true if values in this row are sampled
+			 */
+			boolean sampled(long row) {
+				return strategy == Strategy.ESTIMATED && row < sampleRows;
+			}
+			
+			void observe(long row, int column, Object value) {
+				if (value == null) return;
+				if (strategy == Strategy.AUTO) columns = Math.max(columns, column+1);
+				if (!sampled(row)) return;
+				if (column >= widths.length) widths = Arrays.copyOf(widths, Math.max(widths.length*2, column+1));
+				columns = Math.max(columns, column+1);
+				int length = value instanceof String ? ((String) value).length() : value.toString().length();
+				widths[column] = Math.max(widths[column], Math.min(length+1, MAX_CHARACTERS));
+			}
+			
+			/**
+			 * @return the estimated width in characters of each column seen, or 0 if it had no values
+			 */
+			int[] widths() {
+				return Arrays.copyOf(widths, columns);
+			}
+			
+			boolean isFixed() {
+				return strategy == Strategy.FIXED;
+			}
+			
+			int fixedWidth() {
+				return characters;
+			}
+			
+			void apply(Sheet sheet) {
+				switch (strategy) {
+				case AUTO:
+					//all columns with values, including the entity name column
+					for (int k=0; k<columns; k++) sheet.autoSizeColumn(k);
+					break;
+				case FIXED:
+					sheet.setDefaultColumnWidth(characters);
+					break;
+				case ESTIMATED:
+					if (sheet instanceof XSSFSheet) {
+						//setColumnWidth searches the existing column definitions each time so set them all at once
+						List<CTCol> cols = new ArrayList<>();
+						for (int k=0; k<columns; k++) {
+							if (widths[k] == 0) continue;
+							CTCol col = CTCol.Factory.newInstance();
+							col.setMin(k+1);
+							col.setMax(k+1);
+							col.setWidth(widths[k]);
+							col.setCustomWidth(true);
+							cols.add(col);
+						}
+						CTWorksheet worksheet = ((XSSFSheet) sheet).getCTWorksheet();
+						CTCols ctCols = worksheet.sizeOfColsArray() == 0 ? worksheet.addNewCols() : worksheet.getColsArray(0);
+						ctCols.setColArray(cols.toArray(new CTCol[cols.size()]));
+					} else {
+						for (int k=0; k<columns; k++) {
+							if (widths[k] > 0) sheet.setColumnWidth(k, widths[k]*256);
+						}
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		}
 	}
 }
@@ -1,21 +1,45 @@
 package uk.co.terminological.tabular;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellValue;
-import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.FormulaEvaluator;
 import org.apache.poi.ss.usermodel.Workbook;
 
-import uk.co.terminological.mappers.DateFormatString;
-
 public class ExcelCell {
 	
 	Cell cell;
+	private FormulaEvaluator evaluator;
+	private boolean evaluate;
+	private CellFormat format;
 	
+	/**
+	 * A cell whose formulas are evaluated by a new evaluator
+	 * @param cell
+	 */
 	protected ExcelCell(Cell cell) {
 		this.cell = cell;
+		this.evaluate = true;
+		this.format = CellFormat.DEFAULT;
+	}
+	
+	/**
+	 * A cell formatted with the number formats and cached date styles of its workbook, whose formulas are evaluated
+	 * by a shared evaluator, which caches the values of the cells the formula depends on, or if the evaluator is 
+	 * null, whose formulas take the result cached in the workbook.
+	 * @param cell
+	 * @param evaluator
+	 * @param format
+	 */
+	ExcelCell(Cell cell, FormulaEvaluator evaluator, CellFormat format) {
+		this.cell = cell;
+		this.evaluator = evaluator;
+		this.evaluate = evaluator != null;
+		this.format = format;
 	}
 
 	/**
@@ -26,22 +50,21 @@ public class ExcelCell {
 		case Cell.CELL_TYPE_STRING:
 			return cell.getStringCellValue();
 		case Cell.CELL_TYPE_NUMERIC:
-			if (DateUtil.isCellDateFormatted(cell)) {
-				return DateFormatString.ISO_DATE_TIME_ZONE_FORMAT.format(cell.getDateCellValue());
+			if (format.isDate(cell)) {
+				return CellFormat.date(cell.getDateCellValue());
 			} else {
-				return Double.toString(cell.getNumericCellValue());
+				return format.number(cell.getNumericCellValue());
 			}
 		case Cell.CELL_TYPE_BOOLEAN:
 			return cell.getBooleanCellValue() ? "true" : "false";
 		case Cell.CELL_TYPE_FORMULA:
-			Workbook wb = cell.getSheet().getWorkbook();
-			FormulaEvaluator evaluator = wb.getCreationHelper().createFormulaEvaluator();
-			CellValue cellValue = evaluator.evaluate(cell);
+			CellValue cellValue = formulaValue();
+			if (cellValue == null) return null;
 			switch (cellValue.getCellType()) {
 			case Cell.CELL_TYPE_BOOLEAN:
 				return cellValue.getBooleanValue() ? "true" : "false";
 			case Cell.CELL_TYPE_NUMERIC:
-				return Double.toString(cellValue.getNumberValue());
+				return format.number(cellValue.getNumberValue());
 			case Cell.CELL_TYPE_STRING:
 				return cellValue.getStringValue();
 			case Cell.CELL_TYPE_BLANK:
@@ -57,21 +80,134 @@ public class ExcelCell {
 		}
 	}
 	
+	/**
+	 * Adds the value of the cell to a typed grid keeping its type, as a double, a boolean, a date as epoch 
+	 * milliseconds or a string, or nothing if the cell would be null as a string.
+	 */
+	void addTo(CellGrid grid) {
+		int row = cell.getRowIndex();
+		int column = cell.getColumnIndex();
+		switch (cell.getCellType()) {
+		case Cell.CELL_TYPE_NUMERIC:
+			if (format.isDate(cell)) {
+				grid.add(row, column, ColumnType.TIMESTAMP, cell.getDateCellValue().getTime());
+			} else {
+				grid.add(row, column, ColumnType.DOUBLE, cell.getNumericCellValue());
+			}
+			break;
+		case Cell.CELL_TYPE_BOOLEAN:
+			grid.add(row, column, ColumnType.BOOLEAN, cell.getBooleanCellValue() ? 1 : 0);
+			break;
+		case Cell.CELL_TYPE_FORMULA:
+			CellValue cellValue = formulaValue();
+			if (cellValue == null) break;
+			switch (cellValue.getCellType()) {
+			case Cell.CELL_TYPE_BOOLEAN:
+				grid.add(row, column, ColumnType.BOOLEAN, cellValue.getBooleanValue() ? 1 : 0);
+				break;
+			case Cell.CELL_TYPE_NUMERIC:
+				grid.add(row, column, ColumnType.DOUBLE, cellValue.getNumberValue());
+				break;
+			case Cell.CELL_TYPE_STRING:
+				grid.add(row, column, cellValue.getStringValue());
+				break;
+			}
+			break;
+		case Cell.CELL_TYPE_STRING:
+			grid.add(row, column, cell.getStringCellValue());
+			break;
+		}
+	}
+	
+	//the evaluated result of a formula, or the result when the workbook was last calculated
+	private CellValue formulaValue() {
+		if (!evaluate) {
+			switch (cell.getCachedFormulaResultType()) {
+			case Cell.CELL_TYPE_BOOLEAN:
+				return CellValue.valueOf(cell.getBooleanCellValue());
+			case Cell.CELL_TYPE_NUMERIC:
+				return new CellValue(cell.getNumericCellValue());
+			case Cell.CELL_TYPE_STRING:
+				return new CellValue(cell.getStringCellValue());
+			default:
+				return null;
+			}
+		}
+		if (evaluator == null) {
+			Workbook wb = cell.getSheet().getWorkbook();
+			evaluator = wb.getCreationHelper().createFormulaEvaluator();
+		}
+		return evaluator.evaluate(cell);
+	}
+	
 	public void setValue(Object o) {
+		write(cell, o);
+	}
+	
+	/**
+	 * Sets the value of a cell using a writer for the type of the value, which is looked up once per class.
+	 * Sheets should use {@link ColumnWriters}, which only look up the writer when the type in a column changes.
+	 */
+	static void write(Cell cell, Object o) {
 		if (o == null) cell.setCellType(Cell.CELL_TYPE_BLANK);
-		else if (o instanceof Boolean || o.getClass().equals(Boolean.TYPE)) {
-			cell.setCellValue((Boolean) o);
-		} else if (o instanceof Double || o.getClass().equals(Double.TYPE)
-				|| o instanceof Integer || o.getClass().equals(Integer.TYPE)
-				|| o instanceof Float || o.getClass().equals(Float.TYPE)
-				) {
-			cell.setCellValue(Double.parseDouble(o.toString()));
-		} else if (o instanceof Date) {
-			cell.setCellValue((Date) o);
-		} else if (o instanceof Boolean || o.getClass().equals(Boolean.TYPE)) {
-			cell.setCellValue((Boolean) o);
+		else writer(o.getClass()).write(cell, o);
+	}
+	
+	private static interface CellWriter {
+		void write(Cell cell, Object o);
+	}
+	
+	private static final Map<Class<?>,CellWriter> WRITERS = new ConcurrentHashMap<>();
+	
+	//the shared writer for a class, without locking once it has been created
+	private static CellWriter writer(Class<?> type) {
+		CellWriter out = WRITERS.get(type);
+		return out != null ? out : WRITERS.computeIfAbsent(type, ExcelCell::writerFor);
+	}
+	
+	/**
+	 * The writers for the columns of a sheet, which keep the writer of the last value in each column so that 
+	 * a column of values of the same class only looks up its writer once.
+	 */
+	static class ColumnWriters {
+		
+		private Class<?>[] types = new Class<?>[16];
+		private CellWriter[] writers = new CellWriter[16];
+		
+		/**
+		 * Sets the value of a cell in a column, as for {@link ExcelCell#write(Cell, Object)}
+		 */
+		void write(Cell cell, int column, Object o) {
+			if (o == null) {
+				cell.setCellType(Cell.CELL_TYPE_BLANK);
+				return;
+			}
+			if (column >= types.length) {
+				int size = Math.max(column+1, types.length*2);
+				types = Arrays.copyOf(types, size);
+				writers = Arrays.copyOf(writers, size);
+			}
+			Class<?> type = o.getClass();
+			if (types[column] != type) {
+				types[column] = type;
+				writers[column] = writer(type);
+			}
+			writers[column].write(cell, o);
+		}
+	}
+	
+	private static CellWriter writerFor(Class<?> type) {
+		if (type.equals(Boolean.class)) {
+			return (cell, o) -> cell.setCellValue((Boolean) o);
+		} else if (type.equals(Double.class) || type.equals(Integer.class)) {
+			return (cell, o) -> cell.setCellValue(((Number) o).doubleValue());
+		} else if (type.equals(Float.class)) {
+			//the decimal value of the float rather than its binary expansion
+			return (cell, o) -> cell.setCellValue(Double.parseDouble(o.toString()));
+		} else if (Date.class.isAssignableFrom(type)) {
+			return (cell, o) -> cell.setCellValue((Date) o);
 		} else {
-			cell.setCellValue(o.toString());	
+			return (cell, o) -> cell.setCellValue(o.toString());
 		}
 	}
 }
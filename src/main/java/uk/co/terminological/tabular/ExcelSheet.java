@@ -1,13 +1,24 @@
 package uk.co.terminological.tabular;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 
@@ -15,6 +26,7 @@ import uk.co.terminological.datatypes.EavMap;
 import uk.co.terminological.datatypes.NoMatchException;
 import uk.co.terminological.datatypes.Triple;
 import uk.co.terminological.datatypes.Tuple;
+import uk.co.terminological.tabular.MetricsListener.Phase;
 
 /**
  * Access to the sheet with default configuration for a vertically oriented table of values where the instance
@@ -25,7 +37,13 @@ import uk.co.terminological.datatypes.Tuple;
 public class ExcelSheet {
 
 	private Sheet sheet;
-	private EavMap<Long,Integer,String> rowCache = null;
+	private Excel workbook; //which shares its formula evaluator and cache, if known
+	private FormulaEvaluator evaluator;
+	private CellFormat format; //only if there is no workbook
+	private XlsxStreamReader source; //instead of the sheet when the workbook is streamed
+	private String name;
+	private CellGrid grid = null; //if there is no workbook cache, or the sheet is too large for it
+	private EavMap<Long,Integer,String> rowCache = null; //built from the grid on demand
 	private EavMap<Long,Integer,String> colCache = null;
 	private Content meta;
 
@@ -37,7 +55,30 @@ public class ExcelSheet {
 	 * @param xl
 	 */
 	protected ExcelSheet(Sheet sheet) {
+		this(sheet, null);
+	}
+	
+	/**
+	 * reads an excel sheet using the formula settings of its workbook
+	 * @param sheet
+	 * @param workbook
+	 */
+	protected ExcelSheet(Sheet sheet, Excel workbook) {
 		this.sheet = sheet;
+		this.workbook = workbook;
+		this.meta = new Content(this);
+	}
+
+	/**
+	 * reads a sheet row by row from a streamed workbook
+	 * @param source
+	 * @param name
+	 * @param workbook
+	 */
+	protected ExcelSheet(XlsxStreamReader source, String name, Excel workbook) {
+		this.source = source;
+		this.name = name;
+		this.workbook = workbook;
 		this.meta = new Content(this);
 	}
 
@@ -49,11 +90,55 @@ public class ExcelSheet {
 		return meta;
 	}
 
+	//the workbook's evaluator or one for this sheet, or null to use cached formula results
+	private FormulaEvaluator evaluator() {
+		if (workbook != null) return workbook.getEvaluator();
+		if (evaluator == null) evaluator = sheet.getWorkbook().getCreationHelper().createFormulaEvaluator();
+		return evaluator;
+	}
+
+	private MetricsListener metrics() {
+		return workbook == null ? MetricsListener.NONE : workbook.getMetrics();
+	}
+
+	//the lock held while the workbook object model is read, as POI workbooks are not safe for concurrent reads
+	//of different sheets. Streamed sheets are read from their own part of the file and need no lock
+	private Object lock() {
+		return sheet.getWorkbook();
+	}
+
+	//the workbook's number and date formatting or this sheet's
+	private CellFormat format() {
+		if (workbook != null) return workbook.getFormat();
+		if (format == null) format = new CellFormat(false);
+		return format;
+	}
+
+	/**
+	 * Re-reads the sheet, re-evaluating any formulas, and replaces the contents cached by the workbook.
+	 * @return
+	 */
 	public ExcelSheet recalc() {
-		fillCaches();
+		if (workbook != null) {
+			workbook.clearEvaluators();
+			workbook.getCache().invalidate(getName());
+		} else if (evaluator != null) {
+			evaluator.clearAllCachedResultValues();
+		}
+		grid = null;
+		rowCache = null;
+		colCache = null;
+		grid();
 		return this;
 	}
 
+	/**
+	 * @return the name of the sheet
+	 */
+	public String getName() {
+		return sheet != null ? sheet.getSheetName() : name;
+	}
+
 	/**
 	 * returns a row based EAV map of the contents of the sheet (row E, column A, string of contents V)
 	 * Calculation errors, nulls, blank cells are not returned.
@@ -62,7 +147,7 @@ public class ExcelSheet {
 	 */
 	public EavMap<Long,Integer,String> getContentsByRow() {
 		if (rowCache == null) {
-			fillCaches();
+			rowCache = grid().byRow();
 		}
 		return rowCache;
 	}
@@ -80,7 +165,7 @@ public class ExcelSheet {
 	 */
 	public EavMap<Long,Integer,String> getContentsByColumn() {
 		if (colCache == null) {
-			fillCaches();
+			colCache = grid().byColumn();
 		}
 		return colCache;
 	}
@@ -94,29 +179,172 @@ public class ExcelSheet {
 		return getContentsByColumn().stream();
 	}
 
-	private void fillCaches() {
-		colCache = new EavMap<>();
-		rowCache = new EavMap<>();
-		for (Row row: sheet) {
-			for (Cell cell: row) {
-				int colNum = cell.getColumnIndex();
-				int rowNum = cell.getRowIndex();
-				String tmp = new ExcelCell(cell).toString();
-				if (tmp != null) {
-					colCache.add(Integer.toUnsignedLong(colNum), rowNum, tmp);
-					rowCache.add(Integer.toUnsignedLong(rowNum), colNum, tmp);
-				}
+	//the contents of the sheet from the workbook cache, or read from the sheet. Contents which the cache does
+	//not keep are held by this sheet, so they are not read again for each view of the sheet
+	private CellGrid grid() {
+		if (workbook == null) {
+			if (grid == null) grid = fillCaches();
+			return grid;
+		}
+		CellGrid out = workbook.getCache().get(getName());
+		if (out == null) {
+			if (grid != null) return grid;
+			out = fillCaches();
+			if (!workbook.getCache().put(getName(), out)) grid = out;
+			metrics().cacheSize(workbook.getCache().getBytes());
+		}
+		return out;
+	}
+
+	//reads the sheet once into a grid, from which the row and column maps are built when needed
+	private CellGrid fillCaches() {
+		Stopwatch clock = new Stopwatch(metrics());
+		CellGrid tmpGrid = new CellGrid();
+		long rowCount = 0;
+		try (Stream<Tuple<Integer,Map<Integer,String>>> rows = rows()) {
+			Iterator<Tuple<Integer,Map<Integer,String>>> it = rows.iterator();
+			while (it.hasNext()) {
+				Tuple<Integer,Map<Integer,String>> row = it.next();
+				int rowNum = row.getFirst();
+				row.getSecond().forEach((colNum, value) -> tmpGrid.add(rowNum, colNum, meta.intern(colNum, value)));
+				rowCount++;
+			}
+		}
+		tmpGrid.seal();
+		clock.lap(Phase.READ);
+		clock.report(getName());
+		metrics().rows(getName(), rowCount);
+		metrics().cells(getName(), tmpGrid.size());
+		return tmpGrid;
+	}
+
+	//the row index and non empty values by column index of each row in sheet order, read as the stream is consumed.
+	//a streamed sheet is held open until the stream is closed
+	private Stream<Tuple<Integer,Map<Integer,String>>> rows() {
+		if (source != null) {
+			try {
+				return source.rows(name);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
 		}
+		Object lock = lock();
+		Iterator<Row> rows;
+		FormulaEvaluator evaluator;
+		synchronized (lock) {
+			rows = sheet.iterator();
+			evaluator = evaluator();
+		}
+		CellFormat format = format();
+		Iterator<Tuple<Integer,Map<Integer,String>>> out = new Iterator<Tuple<Integer,Map<Integer,String>>>() {
+
+			long formulas = 0;
+			boolean reported = false;
+
+			@Override
+			public boolean hasNext() {
+				synchronized (lock) {
+					if (rows.hasNext()) return true;
+				}
+				if (!reported && evaluator != null) metrics().formulaEvaluations(getName(), formulas);
+				reported = true;
+				return false;
+			}
+
+			@Override
+			public Tuple<Integer,Map<Integer,String>> next() {
+				Map<Integer,String> values = new LinkedHashMap<>();
+				synchronized (lock) {
+					Row row = rows.next();
+					for (Cell cell: row) {
+						if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) formulas++;
+						String tmp = new ExcelCell(cell, evaluator, format).toString();
+						if (tmp != null) values.put(cell.getColumnIndex(), tmp);
+					}
+					return Tuple.create(row.getRowNum(), values);
+				}
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(out, Spliterator.ORDERED | Spliterator.NONNULL), false);
 	}
 
 	/**
-	 * A stream of labelled values
+	 * A stream of labelled values. 
+	 * For a vertical sheet the sheet is read lazily as the stream is consumed, one row at a time, and values 
+	 * are returned in sheet order. Unlike {@link #getContents()} rows with the same identifier are not merged.
+	 * A horizontal sheet is read completely first.
 	 * @return
 	 */
 	public Stream<Triple<String,String,String>> streamContents() {
+		if (meta.orientation.equals(Orientation.VERTICAL)) return streamLabelledRows();
 		return getContents().stream();
 	}
+
+	//labels each row as it is read, as forEachLabelled does for a vertical sheet. The stream closes the rows
+	private Stream<Triple<String,String,String>> streamLabelledRows() {
+		Stream<Tuple<Integer,Map<Integer,String>>> rows = rows();
+		Iterator<Triple<String,String,String>> out = new LabelledRows(rows.iterator());
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(out, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(rows::close);
+	}
+
+	//the labelled values of rows in sheet order. Labels found in the rows are kept by the iterator rather than
+	//the configuration, so a stream does not change the labels used by other reads of the sheet
+	private class LabelledRows implements Iterator<Triple<String,String,String>> {
+
+		private final Iterator<Tuple<Integer,Map<Integer,String>>> rows;
+		private Map<Integer,String> labels = meta.labelMap;
+		private Iterator<Triple<String,String,String>> current = null;
+
+		LabelledRows(Iterator<Tuple<Integer,Map<Integer,String>>> rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (current == null || !current.hasNext()) {
+				if (!rows.hasNext()) return false;
+				current = label(rows.next()).iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public Triple<String,String,String> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return current.next();
+		}
+
+		private List<Triple<String,String,String>> label(Tuple<Integer,Map<Integer,String>> row) {
+			List<Triple<String,String,String>> out = new ArrayList<>();
+			int rawEnt = row.getFirst();
+			Map<Integer,String> rawAttrValue = new HashMap<>();
+			row.getSecond().forEach((col, value) -> rawAttrValue.put(col, meta.intern(col, value)));
+			if (meta.attributes.equals(Labelling.LABELLED) && labels == null && rawEnt == meta.yOrigin) {
+				labels = rawAttrValue;
+			}
+			if (rawEnt < meta.getRawEntityStart()) return out;
+			boolean labelled = meta.attributes.equals(Labelling.LABELLED) && labels != null;
+			String entity;
+			if (meta.getIdRawAttribute().isPresent()) {
+				entity = rawAttrValue.get(meta.getIdRawAttribute().get());
+			} else {
+				entity = ""+(rawEnt - meta.getRawEntityStart());
+			}
+			for (Integer rawAttr: row.getSecond().keySet()) {
+				if (meta.getIdRawAttribute().filter(i -> i.equals(rawAttr)).isPresent()) continue;
+				if (rawAttr < meta.getRawAttributeStart()) continue;
+				String attribute;
+				if (labelled && labels.containsKey(rawAttr)) {
+					attribute = labels.get(rawAttr);
+				} else {
+					attribute = ""+(rawAttr - meta.getRawAttributeStart());
+				}
+				out.add(Triple.create(entity, attribute, rawAttrValue.get(rawAttr)));
+			}
+			return out;
+		}
+	}
 	
 	/**
 	 * converts a sheet to a EAV map based on header labels.
@@ -125,58 +353,163 @@ public class ExcelSheet {
 	 * @return
 	 */
 	public EavMap<String,String,String> getContents() {
-
 		EavMap<String,String,String> out = new EavMap<>();
-		EavMap<Long,Integer,String> tmp = meta.getRawContents();
-		Optional<Map<Integer,String>> labels = meta.getLabels();
+		CellGrid tmp = grid();
+		Stopwatch clock = new Stopwatch(metrics());
+		forEachLabelled(tmp, meta.getLabels(tmp), (entity, attribute, i) -> out.add(entity, attribute, tmp.value(i)));
+		clock.lap(Phase.BUILD);
+		clock.report(getName());
+		return out;
+	}
+	
+	/**
+	 * converts a sheet to a columnar table of strings based on header labels, with a row for each entity 
+	 * in the same order as {@link #getContents()}. Missing values in the sheet are null in the table.
+	 * The values are dictionary encoded per column which needs much less memory than an EAV map.  
+	 * @return
+	 */
+	public Table getTable() {
+		Table out = new Table();
+		Map<String,Integer> rows = new HashMap<>();
+		Map<String,Integer> columns = new HashMap<>();
+		CellGrid tmp = grid();
+		Stopwatch clock = new Stopwatch(metrics());
+		forEachLabelled(tmp, meta.getLabels(tmp), (entity, attribute, i) -> {
+			Integer row = rows.get(entity);
+			if (row == null) {
+				row = out.addRow(entity);
+				rows.put(entity, row);
+			}
+			Integer column = columns.get(attribute);
+			if (column == null) {
+				column = out.addColumn(attribute, ColumnType.STRING);
+				columns.put(attribute, column);
+			}
+			out.setString(row, column, tmp.value(i));
+		});
+		out.seal();
+		clock.lap(Phase.BUILD);
+		clock.report(getName());
+		return out;
+	}
+	
+	/**
+	 * converts a sheet to a columnar table based on header labels as {@link #getTable()} does, but keeping
+	 * the types of the cells rather than formatting them as strings. A column whose values are all numbers 
+	 * is a DOUBLE column, all booleans a BOOLEAN column, and all dates a TIMESTAMP column of epoch milliseconds,
+	 * each held in a primitive array. Columns of mixed types are string columns of the values as given by
+	 * {@link #getTable()}. Formulas are typed by their result. The sheet is read again on each call rather 
+	 * than from the contents cached by the workbook.
+	 * @return
+	 */
+	public Table getTypedTable() {
+		CellGrid tmp = typedGrid();
+		Stopwatch clock = new Stopwatch(metrics());
+		Optional<Map<Integer,String>> labels = meta.getLabels(tmp);
+		//the columns in order of first appearance, which are strings if their cells have different types
+		Map<String,ColumnType> types = new LinkedHashMap<>();
+		forEachLabelled(tmp, labels, (entity, attribute, i) -> 
+			types.merge(attribute, tmp.type(i), (a, b) -> a == b ? a : ColumnType.STRING));
+		Table out = new Table();
+		Map<String,Integer> columns = new HashMap<>();
+		types.forEach((attribute, type) -> columns.put(attribute, out.addColumn(attribute, type)));
+		Map<String,Integer> rows = new HashMap<>();
+		forEachLabelled(tmp, labels, (entity, attribute, i) -> {
+			Integer row = rows.get(entity);
+			if (row == null) {
+				row = out.addRow(entity);
+				rows.put(entity, row);
+			}
+			int column = columns.get(attribute);
+			switch (out.getType(column)) {
+			case STRING: out.setString(row, column, tmp.value(i)); break;
+			case DOUBLE: out.setDouble(row, column, tmp.number(i)); break;
+			default: out.setLong(row, column, (long) tmp.number(i)); break;
+			}
+		});
+		out.seal();
+		clock.lap(Phase.BUILD);
+		clock.report(getName());
+		return out;
+	}
 
-		//iterate by raw entity (e.g. by row if vertical)
-		for (Long rawEnt: tmp.getEntitySet() ) {
+	//reads the sheet into a typed grid, which is not cached
+	private CellGrid typedGrid() {
+		Stopwatch clock = new Stopwatch(metrics());
+		CellGrid out = new CellGrid(format());
+		if (source != null) {
+			try {
+				source.readTyped(getName(), out);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else {
+			CellFormat format = format();
+			synchronized (lock()) {
+				FormulaEvaluator evaluator = evaluator();
+				for (Row row: sheet) {
+					for (Cell cell: row) new ExcelCell(cell, evaluator, format).addTo(out);
+				}
+			}
+		}
+		out.seal();
+		clock.lap(Phase.READ);
+		clock.report(getName());
+		metrics().cells(getName(), out.size());
+		return out;
+	}
+	
+	private static interface LabelledCellConsumer {
+		void accept(String entity, String attribute, int position);
+	}
 
-			//Integer rawEnt = eav.getKey();
-			//don't map if the cell is outside of the start range
-			if (!(rawEnt < meta.getRawEntityStart())) {
+	//iterate over the non empty cells of a grid applying the labels, identifiers and origin of the configuration
+	private void forEachLabelled(CellGrid tmp, Optional<Map<Integer,String>> labels, LabelledCellConsumer out) {
 
-				Map<Integer,String> rawAttrValue = tmp.get(rawEnt);
+		boolean horizontal = meta.orientation.equals(Orientation.HORIZONTAL);
+		//iterate by raw entity (e.g. by row if vertical)
+		int[] order = horizontal ? tmp.columnMajor() : null;
+		int entityStart = meta.getRawEntityStart();
+		int attributeStart = meta.getRawAttributeStart();
+		Optional<Integer> idRawAttribute = meta.getIdRawAttribute();
+
+		int currentEnt = -1;
+		String entity = null;
+		for (int k=0; k<tmp.size(); k++) {
+			int i = order == null ? k : order[k];
+			int rawEnt = horizontal ? tmp.column(i) : tmp.row(i);
+			int rawAttr = horizontal ? tmp.row(i) : tmp.column(i);
 
-				String entity;
+			//don't map if the cell is outside of the start range
+			if (rawEnt < entityStart) continue;
 
-				if (meta.getIdRawAttribute().isPresent()) {
-					entity = rawAttrValue.get(meta.getIdRawAttribute().get());
+			if (rawEnt != currentEnt) {
+				currentEnt = rawEnt;
+				if (idRawAttribute.isPresent()) {
+					int id = idRawAttribute.get();
+					entity = horizontal ? tmp.get(id, rawEnt) : tmp.get(rawEnt, id);
 				} else {
-					entity = ""+(rawEnt - meta.getRawEntityStart());
+					entity = ""+(rawEnt - entityStart);
 				}
+			}
 
-				//iterate by raw attribute (e.g. by column if vertical)
-				for (Integer rawAttr: tmp.getAttributeSet(rawEnt)) {
-
-					//Don't map if the raw attribute is the entity identifier 
-					if (!meta.getIdRawAttribute().filter(i -> i.equals(rawAttr)).isPresent()) {
-							
-						//Don't map if the cell is outside the start range
-						if (!(rawAttr < meta.getRawAttributeStart())) {
-
-							String attribute;
-
-							if (labels.isPresent()) {
-								if (labels.get().containsKey(rawAttr)) {
-									attribute = labels.get().get(rawAttr);
-								} else {
-									//there was no label defined for this item
-									//we could fall back to the row index as the attribute.
-									attribute = ""+(rawAttr - meta.getRawAttributeStart());
-								}
-							} else {
-								attribute = ""+(rawAttr - meta.getRawAttributeStart());
-							}
-
-							out.add(entity, attribute, tmp.get(rawEnt, rawAttr));
-						}
-					}
-				}
+			//Don't map if the raw attribute is the entity identifier 
+			if (idRawAttribute.isPresent() && idRawAttribute.get() == rawAttr) continue;
+
+			//Don't map if the cell is outside the start range
+			if (rawAttr < attributeStart) continue;
+
+			String attribute;
+			if (labels.isPresent() && labels.get().containsKey(rawAttr)) {
+				attribute = labels.get().get(rawAttr);
+			} else {
+				//there was no label defined for this item
+				//we fall back to the row or column index as the attribute.
+				attribute = ""+(rawAttr - attributeStart);
 			}
+
+			out.accept(entity, attribute, i);
 		}
-		return out;
 
 	}
 
@@ -188,7 +521,8 @@ public class ExcelSheet {
 	 * @return
 	 */
 	public ExcelCell getCellAtIndex(int columnOne, int rowOne) {
-		return new ExcelCell(sheet.getRow(rowOne).getCell(columnOne, Row.RETURN_NULL_AND_BLANK));
+		if (sheet == null) throw new UnsupportedOperationException("Cells are not available from a streamed workbook");
+		return new ExcelCell(sheet.getRow(rowOne).getCell(columnOne, Row.RETURN_NULL_AND_BLANK), evaluator(), format());
 	}
 
 	/**
@@ -220,16 +554,21 @@ public class ExcelSheet {
 		private int yOrigin = 0;
 		private Optional<Integer> idLabel = Optional.of(0); //entity id is in first column (vertical) / row (horizontal)
 		private Map<Integer,String> labelMap; //maybe discontinuous and not zero based
+		private Optional<StringDictionary> dictionary = Optional.empty();
 
 		protected Optional<Map<Integer,String>> getLabels() {
+			if (!attributes.equals(Labelling.LABELLED)) return Optional.empty();
+			return getLabels(labelMap == null ? sheet.grid() : null);
+		}
+
+		//the labels, found from this grid if they are not already known
+		private Optional<Map<Integer,String>> getLabels(CellGrid grid) {
 			if (!attributes.equals(Labelling.LABELLED)) return Optional.empty();
 			if (labelMap == null) {
 				if (orientation.equals(Orientation.HORIZONTAL)) {
-					EavMap<Long,Integer,String> raw = sheet.getContentsByColumn();
-					labelMap = raw.get(Integer.toUnsignedLong(xOrigin));
+					labelMap = grid.columnValues(xOrigin);
 				} else {
-					EavMap<Long,Integer,String> raw = sheet.getContentsByRow();
-					labelMap = raw.get(Integer.toUnsignedLong(yOrigin));
+					labelMap = grid.rowValues(yOrigin);
 				}
 			}
 			return Optional.of(labelMap);
@@ -263,6 +602,47 @@ public class ExcelSheet {
 			return idLabel.map(i -> getRawAttributeStart()+i);
 		}
 
+		protected String intern(int column, String value) {
+			return dictionary.map(d -> d.intern(column, value)).orElse(value);
+		}
+		
+		/**
+		 * Deduplicate repeated cell values as the sheet is read using a dictionary shared by all columns, 
+		 * holding at most maxSize distinct values.
+		 * @param maxSize
+		 * @return
+		 */
+		public Content dictionary(int maxSize) {
+			return dictionary(StringDictionary.global(maxSize));
+		}
+		
+		/**
+		 * Deduplicate repeated cell values as the sheet is read using a separate dictionary for each column 
+		 * of the sheet, holding at most maxSizePerColumn distinct values.
+		 * @param maxSizePerColumn
+		 * @return
+		 */
+		public Content dictionaryPerColumn(int maxSizePerColumn) {
+			return dictionary(StringDictionary.perColumn(maxSizePerColumn));
+		}
+		
+		/**
+		 * Deduplicate repeated cell values as the sheet is read using the given dictionary
+		 * @param dictionary
+		 * @return
+		 */
+		public Content dictionary(StringDictionary dictionary) {
+			this.dictionary = Optional.of(dictionary);
+			return this;
+		}
+		
+		/**
+		 * @return the dictionary in use, from which hit rates can be found
+		 */
+		public Optional<StringDictionary> getDictionary() {
+			return dictionary;
+		}
+
 		public Content origin(String A1) throws NoMatchException {
 			cellReftoCoordinates(A1).consume(xy -> {
 				xOrigin = xy.getFirst();
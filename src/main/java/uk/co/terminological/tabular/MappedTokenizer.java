@@ -0,0 +1,402 @@
+package uk.co.terminological.tabular;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+import uk.co.terminological.datatypes.Deferred;
+import uk.co.terminological.parser.ParserException;
+
+/**
+ * A tokenizer for delimited files which memory maps the file and scans for separators, enclosures and
+ * terminators directly over the bytes. Each record is returned as a list whose fields are slices of the
+ * mapped file, and which are only decoded into Strings when they are read.
+ *
+ * Only single byte separators, enclosures and escapes, terminators of one or two bytes, and character sets
+ * in which these bytes cannot occur inside a multi-byte character (e.g. UTF-8, US-ASCII, ISO-8859-1) are supported.
+ * Files larger than the maximum mapping size are mapped in successive windows.
+ *
+ * @author terminological
+ *
+ */
+class MappedTokenizer implements Iterator<Deferred<List<String>,ParserException>>, Closeable {
+
+	static final int DEFAULT_WINDOW = Integer.MAX_VALUE;
+
+	//the escaped flag is stored in the top bit of the field end offset
+	private static final int ESCAPED = 0x80000000;
+
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+	private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+	private final FileChannel channel;
+	private final Charset charset;
+	private final int separator;
+	private final int enclosure;
+	private final int escape;
+	private final byte[] terminator;
+	private final long size;
+	private final long end;
+	private final int window;
+
+	private ByteBuffer buffer;
+	private long base; //file offset of the start of the buffer
+	private int position; //offset of the next record in the buffer
+	private int[] offsets = new int[64];
+
+	MappedTokenizer(File file, Charset charset, String separator, String enclosure, String escape, String terminator) {
+		this(open(file), charset, separator, enclosure, escape, terminator, 0L, -1L, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Tokenizes records starting at byte offset start up to (but not including) the first record
+	 * starting at or after byte offset end, or to the end of the file if end is negative.
+	 */
+	MappedTokenizer(FileChannel channel, Charset charset, String separator, String enclosure, String escape, String terminator, long start, long end, int window) {
+		if (!supported(charset, separator, enclosure, escape, terminator)) throw new UnsupportedOperationException(
+				"The memory mapped engine only supports single byte delimiters in an ASCII compatible character set");
+		this.channel = channel;
+		this.charset = charset;
+		this.separator = separator.charAt(0);
+		this.enclosure = enclosure == null || enclosure.isEmpty() ? -1 : enclosure.charAt(0);
+		this.escape = escape == null || escape.isEmpty() ? this.enclosure : escape.charAt(0);
+		//by default lines end at a newline, as for the state machine, and a two byte terminator
+		//matches its last byte optionally preceded by the first
+		this.terminator = (terminator == null ? Delimited.Format.DEFAULT_TERMINATOR : terminator).getBytes(StandardCharsets.US_ASCII);
+		this.window = window;
+		try {
+			this.size = channel.size();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.end = end < 0 ? size : Math.min(end, size);
+		map(start);
+	}
+
+	static boolean supported(Charset charset, String separator, String enclosure, String escape, String terminator) {
+		boolean asciiCompatible = charset.equals(StandardCharsets.UTF_8) ||
+				charset.equals(StandardCharsets.US_ASCII) ||
+				(charset.newEncoder().maxBytesPerChar() == 1 && "\t\n\r,\"|".equals(new String("\t\n\r,\"|".getBytes(StandardCharsets.US_ASCII), charset)));
+		return asciiCompatible &&
+				singleAscii(separator) &&
+				(enclosure == null || enclosure.isEmpty() || singleAscii(enclosure)) &&
+				(escape == null || escape.isEmpty() || singleAscii(escape)) &&
+				(terminator == null || (terminator.length() > 0 && terminator.length() <= 2 && terminator.chars().allMatch(c -> c < 0x80)));
+	}
+
+	private static boolean singleAscii(String s) {
+		return s != null && s.length() == 1 && s.charAt(0) < 0x80;
+	}
+
+	static FileChannel open(File file) {
+		try {
+			return new RandomAccessFile(file, "r").getChannel();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void map(long offset) {
+		try {
+			base = offset;
+			position = 0;
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size - offset, window));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the file offset of the next record
+	 */
+	long offset() {
+		return base + position;
+	}
+
+	/**
+	 * Closes the file channel. Records already read remain readable as the mapping persists until
+	 * the buffers are garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return base + position < end;
+	}
+
+	@Override
+	public Deferred<List<String>, ParserException> next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		MappedRecord record = scan();
+		return () -> record;
+	}
+
+	/**
+	 * Reads the next record. If the record runs past the end of the current mapping the file
+	 * is remapped from the start of the record and the scan is repeated.
+	 */
+	MappedRecord scan() {
+		MappedRecord record = scan(position);
+		if (record == null) {
+			if (position == 0) throw new UnsupportedOperationException("Record at offset "+base+" is larger than the mapping window");
+			map(base + position);
+			record = scan(position);
+		}
+		return record;
+	}
+
+	//returns null if the record is not complete before the end of the mapping
+	private MappedRecord scan(int start) {
+		final ByteBuffer buf = buffer;
+		final int limit = buf.limit();
+		final int termLast = terminator[terminator.length-1];
+		int fields = 0;
+		int fieldStart = start;
+		boolean enclosed = false;
+		boolean escaped = false;
+		int i = start;
+		while (i < limit) {
+			int b = buf.get(i) & 0xFF;
+			if (enclosed) {
+				if (b == escape && escape != enclosure) {
+					escaped = true;
+					i++;
+				} else if (b == enclosure) {
+					if (escape == enclosure && i+1 < limit && (buf.get(i+1) & 0xFF) == enclosure) {
+						//doubled enclosure
+						escaped = true;
+						i++;
+					} else {
+						enclosed = false;
+					}
+				}
+			} else if (b == enclosure && i == fieldStart) {
+				enclosed = true;
+			} else if (b == separator) {
+				fields = field(fields, fieldStart, i, escaped);
+				escaped = false;
+				fieldStart = i+1;
+			} else if (b == termLast) {
+				int fieldEnd = i;
+				if (terminator.length == 2 && i > fieldStart && (buf.get(i-1) & 0xFF) == terminator[0]) fieldEnd = i-1;
+				fields = field(fields, fieldStart, fieldEnd, escaped);
+				position = i+1;
+				return new MappedRecord(this, buf, Arrays.copyOf(offsets, fields*2));
+			}
+			i++;
+		}
+		if (base + limit < size) return null;
+		//the end of the file terminates the last record
+		fields = field(fields, fieldStart, limit, escaped);
+		position = limit;
+		return new MappedRecord(this, buf, Arrays.copyOf(offsets, fields*2));
+	}
+
+	//records the field slice, without its enclosure characters if the field was enclosed
+	private int field(int fields, int start, int end, boolean escaped) {
+		if (fields*2+2 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length*2);
+		if (enclosure != -1 && end > start && (buffer.get(start) & 0xFF) == enclosure) {
+			start++;
+			if (end > start && (buffer.get(end-1) & 0xFF) == enclosure) end--;
+		}
+		offsets[fields*2] = start;
+		offsets[fields*2+1] = escaped ? end | ESCAPED : end;
+		return fields+1;
+	}
+
+	/**
+	 * A record of the delimited file as a list of lazily decoded fields.
+	 * Fields are decoded each time they are read.
+	 */
+	static class MappedRecord extends AbstractList<String> implements RandomAccess {
+
+		private final MappedTokenizer tokenizer;
+		private final ByteBuffer buffer;
+		private final int[] offsets;
+
+		MappedRecord(MappedTokenizer tokenizer, ByteBuffer buffer, int[] offsets) {
+			this.tokenizer = tokenizer;
+			this.buffer = buffer;
+			this.offsets = offsets;
+		}
+
+		@Override
+		public String get(int index) {
+			if (index < 0 || index >= size()) throw new IndexOutOfBoundsException(Integer.toString(index));
+			int start = offsets[index*2];
+			int end = offsets[index*2+1] & ~ESCAPED;
+			boolean escaped = (offsets[index*2+1] & ESCAPED) != 0;
+			byte[] scratch = SCRATCH.get();
+			if (scratch.length < end-start) {
+				scratch = new byte[Integer.highestOneBit(end-start) << 1];
+				SCRATCH.set(scratch);
+			}
+			int length = 0;
+			for (int i=start; i<end; i++) {
+				byte b = buffer.get(i);
+				if (escaped && (b & 0xFF) == tokenizer.escape && i+1 < end) {
+					b = buffer.get(++i);
+				}
+				scratch[length++] = b;
+			}
+			return new String(scratch, 0, length, tokenizer.charset);
+		}
+
+		/**
+		 * @return the length in bytes of the encoded field, without decoding it
+		 */
+		public int byteLength(int index) {
+			return (offsets[index*2+1] & ~ESCAPED) - offsets[index*2];
+		}
+
+		@Override
+		public int size() {
+			return offsets.length/2;
+		}
+
+		/**
+		 * @return true if the field equals the value, comparing the bytes directly if the value is ASCII
+		 */
+		boolean matches(int index, String value) {
+			int start = offsets[index*2];
+			int end = offsets[index*2+1] & ~ESCAPED;
+			if ((offsets[index*2+1] & ESCAPED) != 0 || !value.chars().allMatch(c -> c < 0x80)) return value.equals(get(index));
+			if (end-start != value.length()) return false;
+			for (int i=0; i<value.length(); i++) {
+				if (buffer.get(start+i) != value.charAt(i)) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Parses an integer directly from the bytes of the field, falling back to {@link Long#parseLong(String)}
+		 * for anything other than a plain sequence of up to 18 digits, so that invalid values throw the same
+		 * exception with the same message as on the String path.
+		 * @throws NumberFormatException
+		 */
+		long parseLong(int index) {
+			int start = offsets[index*2];
+			int end = offsets[index*2+1] & ~ESCAPED;
+			int i = start;
+			boolean negative = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) negative = buffer.get(i++) == '-';
+			if (i == end || end-i > 18) return Long.parseLong(get(index));
+			long out = 0;
+			for (; i<end; i++) {
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) return Long.parseLong(get(index));
+				out = out*10 + digit;
+			}
+			return negative ? -out : out;
+		}
+
+		/**
+		 * Parses an int as for {@link #parseLong(int)}, falling back to {@link Integer#parseInt(String)} if the
+		 * value is out of range, so that it fails in the same way as on the String path.
+		 * @throws NumberFormatException
+		 */
+		int parseInt(int index) {
+			long out = parseLong(index);
+			if (out < Integer.MIN_VALUE || out > Integer.MAX_VALUE) return Integer.parseInt(get(index));
+			return (int) out;
+		}
+
+		/**
+		 * Parses a decimal directly from the bytes of the field where it has no more than 15 digits and no
+		 * exponent, in which case the result is exact. Anything else falls back to {@link Double#parseDouble(String)}.
+		 * @throws NumberFormatException
+		 */
+		double parseDouble(int index) {
+			int start = offsets[index*2];
+			int end = offsets[index*2+1] & ~ESCAPED;
+			int i = start;
+			boolean negative = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) negative = buffer.get(i++) == '-';
+			long mantissa = 0;
+			int digits = 0;
+			int scale = 0;
+			boolean point = false;
+			for (; i<end; i++) {
+				int b = buffer.get(i);
+				if (b == '.' && !point) {
+					point = true;
+					continue;
+				}
+				int digit = b - '0';
+				if (digit < 0 || digit > 9 || digits == 15) return Double.parseDouble(get(index));
+				mantissa = mantissa*10 + digit;
+				digits++;
+				if (point) scale++;
+			}
+			if (digits == 0) return Double.parseDouble(get(index));
+			double out = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+			return negative ? -out : out;
+		}
+
+		/**
+		 * Parses an ISO yyyy-MM-dd date directly from the bytes of the field, falling back to {@link LocalDate#parse(CharSequence)}
+		 * for anything else, including dates which do not exist, so that invalid values throw the same exception as on
+		 * the String path.
+		 * @return the epoch day
+		 * @throws DateTimeParseException
+		 */
+		long parseEpochDay(int index) {
+			int start = offsets[index*2];
+			int end = offsets[index*2+1] & ~ESCAPED;
+			if (end-start != 10 || buffer.get(start+4) != '-' || buffer.get(start+7) != '-') return LocalDate.parse(get(index)).toEpochDay();
+			int year = digits(start, start+4);
+			int month = digits(start+5, start+7);
+			int day = digits(start+8, start+10);
+			if (year < 0 || month < 1 || month > 12 || day < 1 || day > 28 && day > LocalDate.of(year, month, 1).lengthOfMonth()) {
+				return LocalDate.parse(get(index)).toEpochDay();
+			}
+			return LocalDate.of(year, month, day).toEpochDay();
+		}
+
+		//the value of a run of digits or -1
+		private int digits(int start, int end) {
+			int out = 0;
+			for (int i=start; i<end; i++) {
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) return -1;
+				out = out*10 + digit;
+			}
+			return out;
+		}
+
+		/**
+		 * @return true if the field is "1", or "true" in any case as for {@link Boolean#parseBoolean(String)}, which
+		 * is the same as the String path of {@link TypedRow}
+		 */
+		boolean parseBoolean(int index) {
+			int start = offsets[index*2];
+			int end = offsets[index*2+1] & ~ESCAPED;
+			if (end-start == 1) return buffer.get(start) == '1';
+			if (end-start != 4) return false;
+			for (int i=0; i<4; i++) {
+				if (Character.toLowerCase(buffer.get(start+i)) != "true".charAt(i)) return false;
+			}
+			return true;
+		}
+
+	}
+
+}
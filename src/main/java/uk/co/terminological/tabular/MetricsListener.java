@@ -0,0 +1,80 @@
+package uk.co.terminological.tabular;
+
+import uk.co.terminological.parser.ParserException;
+
+/**
+ * Receives counts and timings from the readers and writers, for export to monitoring. A listener is set with
+ * {@link Delimited.Format#metrics(MetricsListener)}, {@link DelimitedWriter#metrics(MetricsListener)} or
+ * {@link Excel#metrics(MetricsListener)}. All methods do nothing by default so a listener need only implement
+ * those it is interested in.
+ *
+ * Metrics are reported once per operation rather than per row, so a listener adds little cost. Without
+ * a listener ({@link #NONE}) nothing is timed. The source is the path of a delimited file (or "input" for
+ * a stream or reader), the name of a sheet, or the path a delimited or Excel file is written to (or "output"
+ * for a stream or writer).
+ *
+ * A listener must be thread safe. Methods may be called concurrently when sheets are read in parallel or a
+ * listener is shared by several readers, and {@link #parseError(String, long, ParserException)} is called on
+ * the thread that found the error, which is a conversion worker when a delimited file is read with
+ * {@link Delimited.Format#pipelined(int)}. The other methods are called on the thread that closes the reader or
+ * writer, or that reads the sheet.
+ * @author terminological
+ *
+ */
+public interface MetricsListener {
+
+	/**
+	 * The listener that ignores everything, which is the default
+	 */
+	public static final MetricsListener NONE = new MetricsListener() {};
+
+	public static enum Phase {
+		/** tokenising the rows of a delimited file */
+		PARSE,
+		/** opening a workbook, or reading the cells of a sheet including evaluating formulas */
+		READ,
+		/** labelling rows and building an EAV map or table from them */
+		BUILD,
+		/** adding a sheet to a workbook, writing the workbook to a file, or writing delimited rows */
+		WRITE
+	}
+
+	/**
+	 * @param rows the number of rows read or written. The header rows of delimited files and of sheets written 
+	 * from an EAV map are not counted.
+	 */
+	public default void rows(String source, long rows) {}
+
+	/**
+	 * @param cells the number of fields or non empty cells read or written
+	 */
+	public default void cells(String source, long cells) {}
+
+	/**
+	 * @param bytes the number of bytes read from a delimited file (before decompression) or stream, or the size of a
+	 * workbook read or written
+	 */
+	public default void bytes(String source, long bytes) {}
+
+	/**
+	 * @param recordNumber the zero based number of the record that could not be parsed, excluding any header
+	 * row, as given by {@link Delimited.RowVisitor#onRow(long, java.util.List)}
+	 * @param error the error, which is also thrown to the caller
+	 */
+	public default void parseError(String source, long recordNumber, ParserException error) {}
+
+	/**
+	 * @param evaluations the number of formula cells evaluated
+	 */
+	public default void formulaEvaluations(String source, long evaluations) {}
+
+	/**
+	 * @param nanos the time spent in a phase of reading or writing a source
+	 */
+	public default void phase(String source, Phase phase, long nanos) {}
+
+	/**
+	 * @param bytes the estimated size of the sheet contents cached by a workbook after a sheet is added to the cache
+	 */
+	public default void cacheSize(long bytes) {}
+}
@@ -0,0 +1,306 @@
+package uk.co.terminological.tabular;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import uk.co.terminological.datatypes.Deferred;
+import uk.co.terminological.datatypes.Tuple;
+import uk.co.terminological.parser.ParserException;
+
+/**
+ * A tokenizer which splits a file into byte ranges and parses them concurrently on a fork join pool
+ * using {@link MappedTokenizer}.
+ *
+ * Record boundaries are found in a first parallel pass over the ranges, which follows the same states as
+ * {@link MappedTokenizer}: the start of a field, inside an unenclosed field, inside an enclosure, and just after an
+ * enclosure character inside an enclosure, which either closes it or is doubled. An enclosure character only opens
+ * an enclosure at the start of a field. As the state at the start of a range is not known until the preceding
+ * ranges have been scanned, each range is scanned from all four states at once, giving the first record boundary,
+ * number of records and final state for each, and the actual state is resolved in order from the start of the file.
+ * This is correct for enclosures which are escaped by doubling, but not for a separate escape character, which is
+ * not supported.
+ *
+ * The records are then available either in file order, through the iterator, or in the order that ranges
+ * complete, through {@link #unordered(long)}. At most twice as many ranges as threads are parsed ahead of
+ * the consumer.
+ *
+ * @author terminological
+ *
+ */
+class ParallelTokenizer implements Iterator<Deferred<List<String>,ParserException>>, Closeable {
+
+	static final long CHUNK_SIZE = 8L << 20;
+
+	private final FileChannel channel;
+	private final Charset charset;
+	private final String separator;
+	private final String enclosure;
+	private final String terminator;
+	private final ForkJoinPool pool;
+	private final int ahead;
+	private final long chunkSize;
+
+	private final List<Range> ranges;
+	private int nextRange = 0;
+	private final LinkedList<CompletableFuture<Chunk>> inFlight = new LinkedList<>();
+	private Iterator<List<String>> current = Collections.emptyIterator();
+	private long currentRecord = 0;
+	private long consumed = 0;
+
+	ParallelTokenizer(File file, Charset charset, String separator, String enclosure, String escape, String terminator, int threads) {
+		this(file, charset, separator, enclosure, escape, terminator, threads, CHUNK_SIZE);
+	}
+
+	ParallelTokenizer(File file, Charset charset, String separator, String enclosure, String escape, String terminator, int threads, long chunkSize) {
+		if (escape != null && !escape.equals(enclosure)) throw new UnsupportedOperationException(
+				"Parallel parsing does not support an escape character which is different to the enclosure");
+		if (!MappedTokenizer.supported(charset, separator, enclosure, escape, terminator)) throw new UnsupportedOperationException(
+				"Parallel parsing only supports single byte delimiters in an ASCII compatible character set");
+		this.channel = MappedTokenizer.open(file);
+		this.charset = charset;
+		this.separator = separator;
+		this.enclosure = enclosure;
+		this.terminator = terminator;
+		this.pool = new ForkJoinPool(threads);
+		this.ahead = threads * 2;
+		this.chunkSize = chunkSize;
+		try {
+			this.ranges = plan(channel.size());
+		} catch (IOException e) {
+			close();
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	//first pass: find the record boundaries and the index of the first record in each range
+	private List<Range> plan(long size) {
+		List<Scan> scans = new ArrayList<>();
+		for (long start = 0; start < size; start += chunkSize) {
+			scans.add(new Scan(start, Math.min(start + chunkSize, size)));
+		}
+		List<Future<Scan>> done = pool.invokeAll(scans);
+		List<Range> out = new ArrayList<>();
+		int state = FIELD;
+		long records = 0; //terminators outside of enclosures before the start of the scan
+		long boundary = 0;
+		long firstRecord = 0;
+		for (Future<Scan> f: done) {
+			Scan scan = get(f);
+			if (scan.start > 0 && scan.first[state] >= 0) {
+				out.add(new Range(boundary, scan.first[state], firstRecord));
+				boundary = scan.first[state];
+				firstRecord = records + 1;
+			}
+			records += scan.count[state];
+			state = scan.state[state];
+		}
+		if (boundary < size) out.add(new Range(boundary, size, firstRecord));
+		return out;
+	}
+
+	private static <X> X get(Future<X> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	//keep the pool busy with ranges ahead of the consumer
+	private void schedule() {
+		while (inFlight.size() < ahead && nextRange < ranges.size()) {
+			Range range = ranges.get(nextRange++);
+			inFlight.add(CompletableFuture.supplyAsync(range::parse, pool));
+		}
+	}
+
+	/**
+	 * @return the number of records returned so far by the iterator
+	 */
+	long consumed() {
+		return consumed;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!current.hasNext()) {
+			schedule();
+			if (inFlight.isEmpty()) return false;
+			Chunk chunk = get(inFlight.removeFirst());
+			current = chunk.records.iterator();
+			currentRecord = chunk.firstRecord;
+		}
+		return true;
+	}
+
+	@Override
+	public Deferred<List<String>, ParserException> next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		List<String> record = current.next();
+		currentRecord++;
+		consumed++;
+		return () -> record;
+	}
+
+	/**
+	 * The remaining records, in the order in which the ranges of the file finish parsing, paired with
+	 * their record number. The record number is the index of the record in the file minus the offset,
+	 * so that records consumed as headers may be excluded from the numbering.
+	 */
+	Iterator<Tuple<Long,List<String>>> unordered(long offset) {
+		return new Iterator<Tuple<Long,List<String>>>() {
+			@Override
+			public boolean hasNext() {
+				while (!current.hasNext()) {
+					schedule();
+					if (inFlight.isEmpty()) return false;
+					CompletableFuture.anyOf(inFlight.toArray(new CompletableFuture<?>[inFlight.size()])).join();
+					Iterator<CompletableFuture<Chunk>> it = inFlight.iterator();
+					while (it.hasNext()) {
+						CompletableFuture<Chunk> f = it.next();
+						if (f.isDone()) {
+							it.remove();
+							Chunk chunk = get(f);
+							current = chunk.records.iterator();
+							currentRecord = chunk.firstRecord;
+							break;
+						}
+					}
+				}
+				return true;
+			}
+			@Override
+			public Tuple<Long, List<String>> next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				consumed++;
+				return Tuple.create(currentRecord++ - offset, current.next());
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		pool.shutdownNow();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	//the tokenizer states
+	private static final int FIELD = 0; //at the start of a field
+	private static final int UNENCLOSED = 1; //inside a field which is not enclosed
+	private static final int ENCLOSED = 2; //inside an enclosure
+	private static final int CLOSING = 3; //after an enclosure character inside an enclosure
+
+	//the byte classes
+	private static final int OTHER = 0;
+	private static final int SEPARATOR = 1;
+	private static final int ENCLOSURE = 2;
+	private static final int TERMINATOR = 3;
+
+	//the next state for each state and byte class
+	private static final int[][] NEXT = {
+			{UNENCLOSED, FIELD, ENCLOSED, FIELD},
+			{UNENCLOSED, FIELD, UNENCLOSED, FIELD},
+			{ENCLOSED, ENCLOSED, CLOSING, ENCLOSED},
+			{UNENCLOSED, FIELD, ENCLOSED, FIELD}
+	};
+
+	//the final state, and the first record boundary and count of terminators outside of enclosures
+	//for each possible tokenizer state at the start of a byte range
+	private class Scan implements Callable<Scan> {
+
+		final long start;
+		final long end;
+		final int[] state = {FIELD, UNENCLOSED, ENCLOSED, CLOSING};
+		final long[] first = {-1,-1,-1,-1};
+		final long[] count = {0,0,0,0};
+
+		Scan(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Scan call() throws IOException {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end-start);
+			int sep = separator.charAt(0);
+			int enc = enclosure == null || enclosure.isEmpty() ? -1 : enclosure.charAt(0);
+			String t = terminator == null ? Delimited.Format.DEFAULT_TERMINATOR : terminator;
+			int term = t.charAt(t.length()-1);
+			int limit = buf.limit();
+			for (int i=0; i<limit; i++) {
+				int b = buf.get(i) & 0xFF;
+				int type = b == sep ? SEPARATOR : b == enc ? ENCLOSURE : b == term ? TERMINATOR : OTHER;
+				if (type == OTHER) {
+					//the common case, which moves every state but an enclosure into an unenclosed field
+					for (int s=0; s<4; s++) if (state[s] != ENCLOSED) state[s] = UNENCLOSED;
+					continue;
+				}
+				for (int s=0; s<4; s++) {
+					int from = state[s];
+					state[s] = NEXT[from][type];
+					if (type == TERMINATOR && from != ENCLOSED) {
+						count[s]++;
+						if (first[s] < 0) first[s] = start+i+1;
+					}
+				}
+			}
+			return this;
+		}
+	}
+
+	//a range of the file starting and ending on record boundaries
+	private class Range {
+		final long start;
+		final long end;
+		final long firstRecord;
+
+		Range(long start, long end, long firstRecord) {
+			this.start = start;
+			this.end = end;
+			this.firstRecord = firstRecord;
+		}
+
+		Chunk parse() {
+			MappedTokenizer tokenizer = new MappedTokenizer(channel, charset, separator, enclosure, null, terminator,
+					start, end, (int) Math.min(end-start, MappedTokenizer.DEFAULT_WINDOW));
+			List<List<String>> records = new ArrayList<>();
+			while (tokenizer.hasNext()) records.add(tokenizer.scan());
+			return new Chunk(firstRecord, records);
+		}
+	}
+
+	private static class Chunk {
+		final long firstRecord;
+		final List<List<String>> records;
+
+		Chunk(long firstRecord, List<List<String>> records) {
+			this.firstRecord = firstRecord;
+			this.records = records;
+		}
+	}
+
+}
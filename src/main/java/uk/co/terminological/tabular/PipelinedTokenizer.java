@@ -0,0 +1,350 @@
+package uk.co.terminological.tabular;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import uk.co.terminological.datatypes.Deferred;
+import uk.co.terminological.parser.DelimitedParserBuilder;
+import uk.co.terminological.parser.ParserException;
+
+/**
+ * A tokenizer which runs the state machine parser in a pipeline of stages on separate threads. An I/O thread
+ * reads and decodes the input into blocks of characters, a tokenising thread parses the blocks into batches
+ * of records, and the records are passed to the consumer in file order. Each stage is connected to the next
+ * by a bounded queue, so no stage runs more than {@link #AHEAD} blocks or batches ahead of the next.
+ *
+ * Records can also be converted, e.g. to labelled maps or typed rows, in batches on a pool of conversion
+ * workers with {@link #convert(Iterator, Function)}. Converted records are returned in the order of the
+ * records, and errors are thrown at the point in the records where they happened.
+ *
+ * @author terminological
+ *
+ */
+class PipelinedTokenizer implements Iterator<Deferred<List<String>,ParserException>>, Closeable {
+
+	static final int BLOCK_SIZE = 1 << 16;
+	static final int BATCH_SIZE = 1024;
+	static final int AHEAD = 4;
+	//how long closing waits for the stages to stop
+	static final long CLOSE_MILLIS = 1000;
+
+	//the ends of the blocks and batches, which are the last passed to the next stage
+	private static final CharBuffer END_OF_BLOCKS = CharBuffer.allocate(0);
+	private static final List<Deferred<List<String>,ParserException>> END_OF_BATCHES = Collections.emptyList();
+
+	private final Reader reader;
+	private final BlockingQueue<CharBuffer> free = new ArrayBlockingQueue<>(AHEAD);
+	private final BlockingQueue<CharBuffer> blocks = new ArrayBlockingQueue<>(AHEAD + 1);
+	private final BlockingQueue<List<Deferred<List<String>,ParserException>>> batches = new ArrayBlockingQueue<>(AHEAD);
+	private final Thread io;
+	private final Thread tokeniser;
+	private final ForkJoinPool converters;
+	private final int converterCount;
+	private volatile IOException ioError = null;
+	private volatile Throwable tokeniserError = null;
+	private volatile boolean open = true;
+
+	private Iterator<Deferred<List<String>,ParserException>> current = Collections.emptyIterator();
+	private boolean end = false;
+
+	PipelinedTokenizer(Reader reader, DelimitedParserBuilder builder, int converters, String name) {
+		this.reader = reader;
+		for (int i=0; i<AHEAD; i++) free.add(CharBuffer.allocate(BLOCK_SIZE));
+		this.converters = new ForkJoinPool(converters);
+		this.converterCount = converters;
+		this.io = new Thread(this::read, "read "+name);
+		this.tokeniser = new Thread(() -> tokenise(builder), "tokenise "+name);
+		io.setDaemon(true);
+		tokeniser.setDaemon(true);
+		io.start();
+		tokeniser.start();
+	}
+
+	//the I/O stage, which fills free blocks from the reader until the input ends, fails or the pipeline is closed
+	private void read() {
+		try {
+			boolean more = true;
+			while (more && open) {
+				CharBuffer block = free.take();
+				block.clear();
+				int n = 0;
+				while (block.hasRemaining() && (n = reader.read(block.array(), block.position(), block.remaining())) >= 0) {
+					block.position(block.position() + n);
+				}
+				more = n >= 0;
+				block.flip();
+				if (block.hasRemaining()) blocks.put(block);
+			}
+		} catch (InterruptedException e) {
+			//closed
+		} catch (IOException e) {
+			ioError = e;
+		} catch (RuntimeException | Error e) {
+			ioError = new IOException(e);
+		} finally {
+			blocks.offer(END_OF_BLOCKS); //there is always room, as there are at most AHEAD blocks in the queue
+		}
+	}
+
+	//the tokenising stage, which parses the blocks into batches of records whose values have been read
+	private void tokenise(DelimitedParserBuilder builder) {
+		try {
+			Iterator<Deferred<List<String>,ParserException>> parser = builder.build(new BlockReader());
+			List<Deferred<List<String>,ParserException>> batch = new ArrayList<>(BATCH_SIZE);
+			while (open && parser.hasNext()) {
+				batch.add(force(parser.next()));
+				if (batch.size() == BATCH_SIZE) {
+					batches.put(batch);
+					batch = new ArrayList<>(BATCH_SIZE);
+				}
+			}
+			if (!batch.isEmpty()) batches.put(batch);
+		} catch (InterruptedException e) {
+			//closed
+		} catch (Throwable e) {
+			tokeniserError = e;
+		} finally {
+			endBatches();
+		}
+	}
+
+	//passes the end of the batches to the consumer. Once the pipeline is closed the batches the consumer has
+	//not taken are discarded to make room, so a consumer waiting for a batch is always released
+	private void endBatches() {
+		try {
+			if (open) {
+				batches.put(END_OF_BATCHES);
+				return;
+			}
+		} catch (InterruptedException e) {
+			//closed while waiting for room
+		}
+		batches.clear();
+		batches.offer(END_OF_BATCHES);
+	}
+
+	//parses the record on the tokenising thread rather than when the consumer gets it
+	private static Deferred<List<String>,ParserException> force(Deferred<List<String>,ParserException> record) {
+		try {
+			List<String> values = record.get();
+			return () -> values;
+		} catch (ParserException e) {
+			return () -> {throw e;};
+		}
+	}
+
+	//the blocks from the I/O stage as a reader for the state machine
+	private class BlockReader extends Reader {
+
+		private CharBuffer block = null;
+		private boolean end = false;
+
+		//the current block with characters remaining, or null at the end of the input
+		private CharBuffer block() throws IOException {
+			if (block != null && block.hasRemaining()) return block;
+			if (block != null) free.offer(block);
+			block = null;
+			if (end) return null;
+			try {
+				block = blocks.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			if (block == END_OF_BLOCKS) {
+				block = null;
+				end = true;
+				if (ioError != null) throw ioError;
+			}
+			return block;
+		}
+
+		@Override
+		public int read() throws IOException {
+			CharBuffer b = block();
+			return b == null ? -1 : b.get();
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			CharBuffer b = block();
+			if (b == null) return -1;
+			int n = Math.min(len, b.remaining());
+			b.get(cbuf, off, n);
+			return n;
+		}
+
+		@Override
+		public void close() {
+			//the reader is closed with the pipeline
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!current.hasNext()) {
+			if (end) return false;
+			List<Deferred<List<String>,ParserException>> batch;
+			try {
+				batch = batches.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			if (batch == END_OF_BATCHES) {
+				end = true;
+				Throwable e = tokeniserError;
+				if (e == null || !open) return false; //the end of the records, or closed
+				if (e instanceof RuntimeException) throw (RuntimeException) e;
+				if (e instanceof Error) throw (Error) e;
+				throw new RuntimeException(e);
+			}
+			current = batch.iterator();
+		}
+		return true;
+	}
+
+	@Override
+	public Deferred<List<String>, ParserException> next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		return current.next();
+	}
+
+	/**
+	 * Converts records in batches on the conversion workers, and returns the results in the order of the
+	 * records. The first batch is converted on the calling thread, so that state which the conversion
+	 * builds on first use (e.g. column indexes) is in place before the workers start. Runtime exceptions
+	 * from the records or the conversion are thrown after the results of the records before them.
+	 * @param records
+	 * @param conversion
+	 * @return
+	 */
+	<X,Y> Iterator<Y> convert(Iterator<X> records, Function<X,Y> conversion) {
+		return new Iterator<Y>() {
+
+			final LinkedList<Future<Batch<Y>>> inFlight = new LinkedList<>();
+			Batch<Y> batch = null;
+			Iterator<Y> current = Collections.emptyIterator();
+			boolean first = true;
+			boolean exhausted = false; //the records have ended or failed
+
+			@Override
+			public boolean hasNext() {
+				while (!current.hasNext()) {
+					if (batch != null && batch.error != null) {
+						RuntimeException e = batch.error;
+						batch.error = null;
+						throw e;
+					}
+					submit();
+					if (inFlight.isEmpty()) return false;
+					batch = get(inFlight.removeFirst());
+					current = batch.values.iterator();
+				}
+				return true;
+			}
+
+			@Override
+			public Y next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				return current.next();
+			}
+
+			//keep the workers busy with batches ahead of the consumer
+			private void submit() {
+				while (!exhausted && inFlight.size() < converterCount * 2) {
+					List<X> input = new ArrayList<>(BATCH_SIZE);
+					RuntimeException error = null;
+					try {
+						while (input.size() < BATCH_SIZE && records.hasNext()) input.add(records.next());
+					} catch (RuntimeException e) {
+						error = e;
+					}
+					if (input.size() < BATCH_SIZE) exhausted = true;
+					if (input.isEmpty() && error == null) return;
+					RuntimeException sourceError = error;
+					if (first) {
+						first = false;
+						inFlight.add(CompletableFuture.completedFuture(Batch.of(input, conversion, sourceError)));
+					} else {
+						inFlight.add(CompletableFuture.supplyAsync(() -> Batch.of(input, conversion, sourceError), converters));
+					}
+				}
+			}
+		};
+	}
+
+	//the results of converting a batch of records, up to the first error
+	private static class Batch<Y> {
+
+		final List<Y> values;
+		RuntimeException error = null;
+
+		private Batch(int size) {
+			values = new ArrayList<>(size);
+		}
+
+		static <X,Y> Batch<Y> of(List<X> records, Function<X,Y> conversion, RuntimeException error) {
+			Batch<Y> out = new Batch<>(records.size());
+			try {
+				for (X record: records) out.values.add(conversion.apply(record));
+				out.error = error;
+			} catch (RuntimeException e) {
+				out.error = e;
+			}
+			return out;
+		}
+	}
+
+	private static <X> X get(Future<X> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the stages and conversion workers, and closes the reader, which releases the I/O stage if it is 
+	 * blocked reading from it. A consumer waiting for records on another thread sees the end of the records.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!open) return;
+		open = false;
+		converters.shutdown(); //batches already submitted are finished, so a consumer waiting for one is released
+		io.interrupt();
+		tokeniser.interrupt();
+		try {
+			reader.close();
+		} finally {
+			try {
+				long deadline = System.currentTimeMillis() + CLOSE_MILLIS;
+				io.join(CLOSE_MILLIS);
+				tokeniser.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
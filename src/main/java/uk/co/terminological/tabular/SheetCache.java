@@ -0,0 +1,67 @@
+package uk.co.terminological.tabular;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The contents of the sheets of a workbook that have been read, shared by all the {@link ExcelSheet} instances
+ * for the same sheet. The least recently used sheets are evicted when the estimated size of the cached contents
+ * exceeds a budget, and a sheet larger than the whole budget is not cached. Access is synchronised, but sheets
+ * are read outside the lock so the same sheet may occasionally be read twice.
+ * @author terminological
+ *
+ */
+class SheetCache {
+
+	private final LinkedHashMap<String,CellGrid> grids = new LinkedHashMap<>(16, 0.75f, true);
+	private long maxBytes;
+	private long bytes = 0;
+
+	SheetCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	synchronized CellGrid get(String sheet) {
+		return grids.get(sheet);
+	}
+
+	/**
+	 * @return whether the grid is cached, which it is not if it is larger than the whole budget
+	 */
+	synchronized boolean put(String sheet, CellGrid grid) {
+		invalidate(sheet);
+		if (grid.estimatedBytes() > maxBytes) return false;
+		grids.put(sheet, grid);
+		bytes += grid.estimatedBytes();
+		evict();
+		return true;
+	}
+
+	synchronized void invalidate(String sheet) {
+		CellGrid old = grids.remove(sheet);
+		if (old != null) bytes -= old.estimatedBytes();
+	}
+
+	synchronized void clear() {
+		grids.clear();
+		bytes = 0;
+	}
+
+	synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	synchronized long getBytes() {
+		return bytes;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String,CellGrid>> it = grids.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().getValue().estimatedBytes();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package uk.co.terminological.tabular;
+
+import uk.co.terminological.tabular.MetricsListener.Phase;
+
+/**
+ * Accumulates the time spent in each phase of an operation and reports the totals to a listener. Each lap
+ * adds the time since the previous lap to a phase. Nothing is timed if the listener is {@link MetricsListener#NONE}.
+ * @author terminological
+ *
+ */
+class Stopwatch {
+
+	private final MetricsListener listener;
+	private final boolean enabled;
+	private final long[] nanos = new long[Phase.values().length];
+	private long last;
+
+	Stopwatch(MetricsListener listener) {
+		this.listener = listener;
+		this.enabled = listener != MetricsListener.NONE;
+		this.last = enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Adds the time since the last lap to the phase
+	 */
+	void lap(Phase phase) {
+		if (!enabled) return;
+		long now = System.nanoTime();
+		nanos[phase.ordinal()] += now - last;
+		last = now;
+	}
+
+	/**
+	 * Starts the next lap without counting the time since the last one
+	 */
+	void skip() {
+		if (enabled) last = System.nanoTime();
+	}
+
+	/**
+	 * Reports the phases that were timed
+	 */
+	void report(String source) {
+		if (!enabled) return;
+		for (Phase phase: Phase.values()) {
+			if (nanos[phase.ordinal()] > 0) listener.phase(source, phase, nanos[phase.ordinal()]);
+		}
+	}
+}
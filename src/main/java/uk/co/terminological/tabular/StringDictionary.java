@@ -0,0 +1,106 @@
+package uk.co.terminological.tabular;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded dictionary used to deduplicate repeated values as they are parsed, so that memory retained by 
+ * the results scales with the number of distinct values rather than the number of rows. The dictionary 
+ * is either shared by all columns or kept separately for each column. Once a dictionary is full, new values 
+ * are returned as they are without being added. 
+ * 
+ * A dictionary is not thread safe and should be used by one reader at a time.
+ * @author terminological
+ *
+ */
+public class StringDictionary {
+
+	private final int maxSize;
+	private final Map<String,String> global;
+	private final List<Map<String,String>> columns;
+	private long hits = 0;
+	private long misses = 0;
+	private int size = 0;
+	
+	private StringDictionary(int maxSize, boolean perColumn) {
+		this.maxSize = maxSize;
+		this.global = perColumn ? null : new HashMap<>();
+		this.columns = perColumn ? new ArrayList<>() : null;
+	}
+	
+	/**
+	 * @param maxSize the maximum number of distinct values held
+	 * @return a dictionary shared by all columns 
+	 */
+	public static StringDictionary global(int maxSize) {
+		return new StringDictionary(maxSize, false);
+	}
+	
+	/**
+	 * @param maxSizePerColumn the maximum number of distinct values held for each column
+	 * @return a dictionary with separate values for each column 
+	 */
+	public static StringDictionary perColumn(int maxSizePerColumn) {
+		return new StringDictionary(maxSizePerColumn, true);
+	}
+	
+	/**
+	 * @param column the zero based column of the value, which is ignored by a global dictionary
+	 * @param value
+	 * @return a previously seen equal value, or the value itself
+	 */
+	public String intern(int column, String value) {
+		if (value == null) return null;
+		Map<String,String> dictionary = global != null ? global : column(column);
+		String out = dictionary.get(value);
+		if (out != null) {
+			hits++;
+			return out;
+		}
+		misses++;
+		if (dictionary.size() < maxSize) {
+			dictionary.put(value, value);
+			size++;
+		}
+		return value;
+	}
+	
+	private Map<String,String> column(int column) {
+		while (columns.size() <= column) columns.add(new HashMap<>());
+		return columns.get(column);
+	}
+	
+	/**
+	 * @return the number of values that were found in the dictionary
+	 */
+	public long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return the number of values that were not found in the dictionary
+	 */
+	public long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return the proportion of values found in the dictionary, or NaN if no values have been seen
+	 */
+	public double getHitRate() {
+		return (double) hits / (hits + misses);
+	}
+	
+	/**
+	 * @return the number of distinct values held in the dictionary
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	public String toString() {
+		return "hits: "+hits+", misses: "+misses+", size: "+size;
+	}
+}
@@ -0,0 +1,297 @@
+package uk.co.terminological.tabular;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+
+import uk.co.terminological.datatypes.EavMap;
+
+/**
+ * A columnar in memory table of parsed data. Each column is stored in a single array: string columns as
+ * codes into a dictionary of the distinct values in the column, integer, long, boolean, date and timestamp 
+ * columns as primitive longs, and double columns as primitive doubles. Missing values are recorded in a bit set per column.
+ * Each row has a string identifier, which need not be unique.
+ *
+ * Tables are filled by the readers (see {@link Delimited#getTable()}, {@link ExcelSheet#getTable()} and 
+ * {@link ExcelSheet#getTypedTable()}) and can be converted to an {@link EavMap} on demand.
+ * @author terminological
+ *
+ */
+public class Table {
+
+	private final List<Column> columns = new ArrayList<>();
+	private final Map<String,Integer> columnIndex = new HashMap<>();
+	private String[] ids = new String[16];
+	private int rows = 0;
+	private Map<String,Integer> rowIndex = null; //built on first lookup
+
+	Table() {}
+
+	/**
+	 * @return the index of a new column with this label and type
+	 */
+	int addColumn(String label, ColumnType type) {
+		columns.add(new Column(label, type, ids.length));
+		columnIndex.put(label, columns.size()-1);
+		return columns.size()-1;
+	}
+
+	/**
+	 * @return the index of a new row with this identifier
+	 */
+	int addRow(String id) {
+		if (rows == ids.length) {
+			ids = Arrays.copyOf(ids, ids.length*2);
+			for (Column column: columns) column.grow(ids.length);
+		}
+		ids[rows] = id;
+		if (rowIndex != null) rowIndex.putIfAbsent(id, rows);
+		return rows++;
+	}
+
+	void setString(int row, int column, String value) {
+		if (value != null) columns.get(column).setString(row, value);
+	}
+
+	void setLong(int row, int column, long value) {
+		columns.get(column).setLong(row, value);
+	}
+
+	void setDouble(int row, int column, double value) {
+		columns.get(column).setDouble(row, value);
+	}
+
+	/**
+	 * Adds a typed row, creating the columns from the labels and types of the first row.
+	 */
+	void append(String id, TypedRow typed) {
+		if (columns.isEmpty()) {
+			for (int i=0; i<typed.size(); i++) addColumn(typed.getLabel(i), typed.getType(i));
+		}
+		int row = addRow(id);
+		for (int i=0; i<typed.size(); i++) {
+			if (typed.isNull(i)) continue;
+			switch (typed.getType(i)) {
+			case STRING: setString(row, i, typed.getString(i)); break;
+			case DOUBLE: setDouble(row, i, typed.getDouble(i)); break;
+			default: setLong(row, i, typed.getLong(i)); break;
+			}
+		}
+	}
+
+	/**
+	 * Releases the working space used while filling the table. The table can still be added to afterwards.
+	 */
+	Table seal() {
+		ids = Arrays.copyOf(ids, Math.max(rows, 1));
+		for (Column column: columns) column.seal(ids.length);
+		return this;
+	}
+
+	public int rowCount() {
+		return rows;
+	}
+
+	public int columnCount() {
+		return columns.size();
+	}
+
+	public String getLabel(int column) {
+		return columns.get(column).label;
+	}
+
+	public ColumnType getType(int column) {
+		return columns.get(column).type;
+	}
+
+	/**
+	 * @return the index of the column with this label or -1
+	 */
+	public int indexOf(String label) {
+		return columnIndex.getOrDefault(label, -1);
+	}
+
+	public String getRowId(int row) {
+		checkRow(row);
+		return ids[row];
+	}
+
+	/**
+	 * @return the index of the first row with this identifier or -1
+	 */
+	public int rowIndexOf(String id) {
+		if (rowIndex == null) {
+			rowIndex = new HashMap<>();
+			for (int i=0; i<rows; i++) rowIndex.putIfAbsent(ids[i], i);
+		}
+		return rowIndex.getOrDefault(id, -1);
+	}
+
+	public boolean isNull(int row, int column) {
+		checkRow(row);
+		return !columns.get(column).present.get(row);
+	}
+
+	/**
+	 * @return the value of a string column or the string representation of any other type of value, or null
+	 */
+	public String getString(int row, int column) {
+		if (isNull(row, column)) return null;
+		Column c = columns.get(column);
+		switch (c.type) {
+		case STRING: return c.dictionary.get(c.codes[row]);
+		case DOUBLE: return Double.toString(c.doubles[row]);
+		case BOOLEAN: return Boolean.toString(c.longs[row] != 0);
+		case DATE: return LocalDate.ofEpochDay(c.longs[row]).toString();
+		case TIMESTAMP: return Instant.ofEpochMilli(c.longs[row]).toString();
+		default: return Long.toString(c.longs[row]);
+		}
+	}
+
+	/**
+	 * @return the value of an integer, long, boolean (0 or 1), date (as the epoch day) or timestamp (as epoch
+	 * milliseconds) column, or 0 if null
+	 * @throws IllegalStateException if the column is a string or double column
+	 */
+	public long getLong(int row, int column) {
+		Column c = columns.get(column);
+		if (c.longs == null) throw new IllegalStateException(c.label+" is a "+c.type+" column");
+		return isNull(row, column) ? 0 : c.longs[row];
+	}
+
+	/**
+	 * @return the value of a numeric column, or NaN if null
+	 * @throws IllegalStateException if the column is not numeric
+	 */
+	public double getDouble(int row, int column) {
+		Column c = columns.get(column);
+		if (isNull(row, column)) return Double.NaN;
+		switch (c.type) {
+		case DOUBLE: return c.doubles[row];
+		case INTEGER:
+		case LONG: return c.longs[row];
+		default: throw new IllegalStateException(c.label+" is a "+c.type+" column");
+		}
+	}
+
+	/**
+	 * @return the non null values of an integer, long, boolean, date or timestamp column in row order
+	 */
+	public LongStream longs(int column) {
+		Column c = columns.get(column);
+		if (c.longs == null) throw new IllegalStateException(c.label+" is a "+c.type+" column");
+		return c.present.stream().filter(i -> i < rows).mapToLong(i -> c.longs[i]);
+	}
+
+	/**
+	 * @return the non null values of a double column in row order
+	 */
+	public DoubleStream doubles(int column) {
+		Column c = columns.get(column);
+		if (c.doubles == null) throw new IllegalStateException(c.label+" is a "+c.type+" column");
+		return c.present.stream().filter(i -> i < rows).mapToDouble(i -> c.doubles[i]);
+	}
+
+	/**
+	 * @return the number of distinct values of a string column
+	 */
+	public int distinctValues(int column) {
+		Column c = columns.get(column);
+		if (c.dictionary == null) throw new IllegalStateException(c.label+" is a "+c.type+" column");
+		return c.dictionary.size();
+	}
+
+	/**
+	 * Converts the table to an entity, attribute, value map of the string representations of the values.
+	 * Null values are omitted and rows with the same identifier are merged.
+	 * @return
+	 */
+	public EavMap<String,String,String> toEavMap() {
+		EavMap<String,String,String> out = new EavMap<>();
+		for (int row=0; row<rows; row++) {
+			for (int column=0; column<columns.size(); column++) {
+				if (!isNull(row, column)) out.add(ids[row], columns.get(column).label, getString(row, column));
+			}
+		}
+		return out;
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= rows) throw new IndexOutOfBoundsException(Integer.toString(row));
+	}
+
+	private static class Column {
+
+		final String label;
+		final ColumnType type;
+		final BitSet present = new BitSet();
+		int[] codes;
+		long[] longs;
+		double[] doubles;
+		List<String> dictionary;
+		Map<String,Integer> lookup; //dropped when the table is sealed
+
+		Column(String label, ColumnType type, int capacity) {
+			this.label = label;
+			this.type = type;
+			switch (type) {
+			case STRING:
+				codes = new int[capacity];
+				dictionary = new ArrayList<>();
+				lookup = new HashMap<>();
+				break;
+			case DOUBLE:
+				doubles = new double[capacity];
+				break;
+			default:
+				longs = new long[capacity];
+			}
+		}
+
+		void grow(int capacity) {
+			if (codes != null) codes = Arrays.copyOf(codes, capacity);
+			if (longs != null) longs = Arrays.copyOf(longs, capacity);
+			if (doubles != null) doubles = Arrays.copyOf(doubles, capacity);
+		}
+
+		void seal(int capacity) {
+			grow(capacity);
+			lookup = null;
+		}
+
+		void setString(int row, String value) {
+			if (codes == null) throw new IllegalStateException(label+" is a "+type+" column");
+			if (lookup == null) {
+				lookup = new HashMap<>();
+				for (int i=0; i<dictionary.size(); i++) lookup.put(dictionary.get(i), i);
+			}
+			Integer code = lookup.get(value);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(value);
+				lookup.put(value, code);
+			}
+			codes[row] = code;
+			present.set(row);
+		}
+
+		void setLong(int row, long value) {
+			if (longs == null) throw new IllegalStateException(label+" is a "+type+" column");
+			longs[row] = value;
+			present.set(row);
+		}
+
+		void setDouble(int row, double value) {
+			if (doubles == null) throw new IllegalStateException(label+" is a "+type+" column");
+			doubles[row] = value;
+			present.set(row);
+		}
+	}
+}
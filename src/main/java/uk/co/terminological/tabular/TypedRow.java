@@ -0,0 +1,223 @@
+package uk.co.terminological.tabular;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.co.terminological.tabular.MappedTokenizer.MappedRecord;
+
+/**
+ * A row of projected columns whose values have been parsed to their declared {@link ColumnType}. 
+ * Numeric, boolean and date values are held as primitives and are not available as Strings.
+ * Columns are indexed in the order in which they were declared.
+ * @author terminological
+ *
+ */
+public class TypedRow {
+
+	private final long recordNumber;
+	private final String[] labels;
+	private final ColumnType[] types;
+	private final long[] values; //doubles are stored as their raw long bits
+	private final String[] strings;
+	private final boolean[] nulls;
+	
+	TypedRow(long recordNumber, String[] labels, ColumnType[] types) {
+		this.recordNumber = recordNumber;
+		this.labels = labels;
+		this.types = types;
+		this.values = new long[types.length];
+		this.strings = new String[types.length];
+		this.nulls = new boolean[types.length];
+	}
+	
+	/**
+	 * Parses the projected columns of the raw values of a row. Fields equal to the null value, and empty 
+	 * fields in non string columns, are null. When the values are from the memory mapped engine the fields 
+	 * are parsed directly from the file and the unprojected or non string fields are never decoded. Both
+	 * engines fail in the same way for the same field.
+	 * @throws Delimited.ValueFormatException if a numeric or date field cannot be parsed, caused by the
+	 * {@link NumberFormatException} or {@link java.time.format.DateTimeParseException} from parsing the String
+	 */
+	static TypedRow parse(long recordNumber, List<String> raw, int[] columns, String[] labels, ColumnType[] types, String nullValue) {
+		TypedRow out = new TypedRow(recordNumber, labels, types);
+		MappedRecord mapped = raw instanceof MappedRecord ? (MappedRecord) raw : null;
+		for (int i=0; i<columns.length; i++) {
+			int c = columns[i];
+			if (c >= raw.size()) {
+				out.nulls[i] = true;
+				continue;
+			}
+			try {
+				out.parseField(i, raw, mapped, c, nullValue);
+			} catch (NumberFormatException | DateTimeException e) {
+				throw new Delimited.ValueFormatException(recordNumber, labels[i], e);
+			}
+		}
+		return out;
+	}
+	
+	//parses a field into the value at the index
+	private void parseField(int i, List<String> raw, MappedRecord mapped, int c, String nullValue) {
+		if (mapped != null) {
+			if ((nullValue != null && mapped.matches(c, nullValue)) || (types[i] != ColumnType.STRING && mapped.byteLength(c) == 0)) {
+				nulls[i] = true;
+				return;
+			}
+			switch (types[i]) {
+			case STRING: strings[i] = mapped.get(c); break;
+			case INTEGER: values[i] = mapped.parseInt(c); break;
+			case LONG: values[i] = mapped.parseLong(c); break;
+			case DOUBLE: values[i] = Double.doubleToRawLongBits(mapped.parseDouble(c)); break;
+			case BOOLEAN: values[i] = mapped.parseBoolean(c) ? 1 : 0; break;
+			case DATE: values[i] = mapped.parseEpochDay(c); break;
+			case TIMESTAMP: values[i] = Instant.parse(mapped.get(c)).toEpochMilli(); break;
+			}
+		} else {
+			String value = raw.get(c);
+			if (value == null || value.equals(nullValue) || (types[i] != ColumnType.STRING && value.isEmpty())) {
+				nulls[i] = true;
+				return;
+			}
+			switch (types[i]) {
+			case STRING: strings[i] = value; break;
+			case INTEGER: values[i] = Integer.parseInt(value); break;
+			case LONG: values[i] = Long.parseLong(value); break;
+			case DOUBLE: values[i] = Double.doubleToRawLongBits(Double.parseDouble(value)); break;
+			case BOOLEAN: values[i] = value.equals("1") || Boolean.parseBoolean(value) ? 1 : 0; break;
+			case DATE: values[i] = LocalDate.parse(value).toEpochDay(); break;
+			case TIMESTAMP: values[i] = Instant.parse(value).toEpochMilli(); break;
+			}
+		}
+	}
+	
+	void setNull(int index) {
+		nulls[index] = true;
+	}
+	
+	void setString(int index, String value) {
+		strings[index] = value;
+		nulls[index] = value == null;
+	}
+	
+	void setLong(int index, long value) {
+		values[index] = value;
+	}
+	
+	void setDouble(int index, double value) {
+		values[index] = Double.doubleToRawLongBits(value);
+	}
+	
+	/**
+	 * @return the record number of the row in the source
+	 */
+	public long getRecordNumber() {
+		return recordNumber;
+	}
+	
+	public int size() {
+		return types.length;
+	}
+	
+	public String getLabel(int index) {
+		return labels[index];
+	}
+	
+	public ColumnType getType(int index) {
+		return types[index];
+	}
+	
+	/**
+	 * @return the index of the column with this label or -1 if it is not projected
+	 */
+	public int indexOf(String label) {
+		return Arrays.asList(labels).indexOf(label);
+	}
+	
+	public boolean isNull(int index) {
+		return nulls[index];
+	}
+	
+	/**
+	 * @return the value of a string column, or the string representation of any other type of column, or null 
+	 */
+	public String getString(int index) {
+		if (nulls[index]) return null;
+		switch (types[index]) {
+		case STRING: return strings[index];
+		case DOUBLE: return Double.toString(getDouble(index));
+		case BOOLEAN: return Boolean.toString(getBoolean(index));
+		case DATE: return getDate(index).toString();
+		case TIMESTAMP: return getTimestamp(index).toString();
+		default: return Long.toString(values[index]);
+		}
+	}
+	
+	/**
+	 * @return the value of an integer, long, boolean (0 or 1), date (as the epoch day) or timestamp (as epoch 
+	 * milliseconds) column, or 0 if null
+	 * @throws IllegalStateException if the column is a string or double
+	 */
+	public long getLong(int index) {
+		if (types[index] == ColumnType.STRING || types[index] == ColumnType.DOUBLE) throw new IllegalStateException(labels[index]+" is a "+types[index]+" column");
+		return values[index];
+	}
+	
+	/**
+	 * @return the value of an integer column, or 0 if null
+	 * @throws IllegalStateException if the column is not an integer
+	 */
+	public int getInt(int index) {
+		if (types[index] != ColumnType.INTEGER) throw new IllegalStateException(labels[index]+" is a "+types[index]+" column");
+		return (int) values[index];
+	}
+	
+	/**
+	 * @return the value of a double, integer or long column, or NaN if null
+	 * @throws IllegalStateException if the column is not numeric
+	 */
+	public double getDouble(int index) {
+		if (nulls[index]) return Double.NaN;
+		switch (types[index]) {
+		case DOUBLE: return Double.longBitsToDouble(values[index]);
+		case INTEGER: 
+		case LONG: return values[index];
+		default: throw new IllegalStateException(labels[index]+" is a "+types[index]+" column");
+		}
+	}
+	
+	/**
+	 * @return the value of a boolean column, or false if null
+	 * @throws IllegalStateException if the column is not boolean
+	 */
+	public boolean getBoolean(int index) {
+		if (types[index] != ColumnType.BOOLEAN) throw new IllegalStateException(labels[index]+" is a "+types[index]+" column");
+		return values[index] != 0;
+	}
+	
+	/**
+	 * @return the value of a date column, or null
+	 * @throws IllegalStateException if the column is not a date
+	 */
+	public LocalDate getDate(int index) {
+		if (types[index] != ColumnType.DATE) throw new IllegalStateException(labels[index]+" is a "+types[index]+" column");
+		return nulls[index] ? null : LocalDate.ofEpochDay(values[index]);
+	}
+	
+	/**
+	 * @return the value of a timestamp column, or null
+	 * @throws IllegalStateException if the column is not a timestamp
+	 */
+	public Instant getTimestamp(int index) {
+		if (types[index] != ColumnType.TIMESTAMP) throw new IllegalStateException(labels[index]+" is a "+types[index]+" column");
+		return nulls[index] ? null : Instant.ofEpochMilli(values[index]);
+	}
+	
+	public String toString() {
+		StringBuilder out = new StringBuilder().append(recordNumber);
+		for (int i=0; i<types.length; i++) out.append("\t").append(labels[i]).append("=").append(getString(i));
+		return out.toString();
+	}
+}
@@ -0,0 +1,364 @@
+package uk.co.terminological.tabular;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+
+import uk.co.terminological.datatypes.Tuple;
+
+/**
+ * Reads the sheets of an xlsx file row by row with a streaming XML parser, without building the workbook
+ * object model. Only the shared strings table and the cell styles are held in memory, and each row is
+ * converted to strings in the same way as {@link ExcelCell#toString()}, except that formulas are not evaluated
+ * and the result cached in the file is used instead. Sheets may be read concurrently.
+ * @author terminological
+ *
+ */
+class XlsxStreamReader {
+
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+	private final OPCPackage pkg;
+	private final XSSFReader reader;
+	private final Map<String,String> sheets = new LinkedHashMap<>(); //sheet name to relationship id
+	private boolean date1904 = false;
+	private volatile List<String> sharedStrings = null; //loaded on first use
+	private StylesTable styles = null; //loaded on first use
+	private final Map<Integer,Boolean> dateStyles = new ConcurrentHashMap<>();
+	private volatile CellFormat numbers = new CellFormat(false);
+
+	XlsxStreamReader(File file) throws IOException {
+		try {
+			this.pkg = OPCPackage.open(file.getAbsolutePath(), PackageAccess.READ);
+			this.reader = new XSSFReader(pkg);
+			readWorkbook(reader.getWorkbookData());
+		} catch (OpenXML4JException | XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	void setFormat(CellFormat numbers) {
+		this.numbers = numbers;
+	}
+
+	//the names and relationship ids of the sheets and the date system
+	private void readWorkbook(InputStream workbook) throws XMLStreamException, IOException {
+		try (InputStream is = workbook) {
+			XMLStreamReader xml = FACTORY.createXMLStreamReader(is);
+			while (xml.hasNext()) {
+				if (xml.next() != XMLStreamConstants.START_ELEMENT) continue;
+				if (xml.getLocalName().equals("workbookPr")) {
+					String d = attribute(xml, "date1904");
+					date1904 = "1".equals(d) || "true".equals(d);
+				} else if (xml.getLocalName().equals("sheet")) {
+					sheets.put(attribute(xml, "name"), attribute(xml, "id"));
+				}
+			}
+			xml.close();
+		}
+	}
+
+	private static String attribute(XMLStreamReader xml, String localName) {
+		for (int i=0; i<xml.getAttributeCount(); i++) {
+			if (xml.getAttributeLocalName(i).equals(localName)) return xml.getAttributeValue(i);
+		}
+		return null;
+	}
+
+	List<String> getSheetnames() {
+		return new ArrayList<>(sheets.keySet());
+	}
+
+	void close() {
+		pkg.revert();
+	}
+
+	private List<String> sharedStrings() {
+		List<String> out = sharedStrings;
+		return out == null ? loadSharedStrings() : out;
+	}
+
+	//the shared strings table, which is empty if the workbook has no shared strings part
+	private synchronized List<String> loadSharedStrings() {
+		if (sharedStrings == null) {
+			List<String> strings = new ArrayList<>();
+			List<PackagePart> parts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+			if (!parts.isEmpty()) try (InputStream is = parts.get(0).getInputStream()) {
+				XMLStreamReader xml = FACTORY.createXMLStreamReader(is);
+				StringBuilder item = null;
+				int phonetic = 0;
+				while (xml.hasNext()) {
+					int event = xml.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						if (xml.getLocalName().equals("si")) item = new StringBuilder();
+						else if (xml.getLocalName().equals("rPh")) phonetic++;
+						else if (xml.getLocalName().equals("t") && phonetic == 0 && item != null) item.append(xml.getElementText());
+					} else if (event == XMLStreamConstants.END_ELEMENT) {
+						if (xml.getLocalName().equals("si")) strings.add(item.toString());
+						else if (xml.getLocalName().equals("rPh")) phonetic--;
+					}
+				}
+				xml.close();
+			} catch (XMLStreamException e) {
+				throw new UncheckedIOException(new IOException(e));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			sharedStrings = strings;
+		}
+		return sharedStrings;
+	}
+
+	private synchronized StylesTable styles() throws IOException, OpenXML4JException {
+		if (styles == null) styles = reader.getStylesTable();
+		return styles;
+	}
+
+	//whether numbers in this style are dates, as for DateUtil.isCellDateFormatted
+	private boolean isDateStyle(int style) {
+		return dateStyles.computeIfAbsent(style, s -> {
+			try {
+				XSSFCellStyle cellStyle = styles().getStyleAt(s);
+				return DateUtil.isADateFormat(cellStyle.getDataFormat(), cellStyle.getDataFormatString());
+			} catch (OpenXML4JException e) {
+				throw new UncheckedIOException(new IOException(e));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * Streams the non empty rows of a sheet in the order they appear in the file, as a tuple of zero based
+	 * row index and a map of zero based column index to the string value of non empty cells in the row.
+	 * The sheet is read as the stream is consumed, and closed when the stream is exhausted or closed.
+	 * @throws IOException if the sheet cannot be opened
+	 */
+	Stream<Tuple<Integer,Map<Integer,String>>> rows(String sheetName) throws IOException {
+		InputStream is = open(sheetName);
+		XMLStreamReader xml;
+		try {
+			xml = FACTORY.createXMLStreamReader(is);
+		} catch (XMLStreamException e) {
+			is.close();
+			throw new IOException(e);
+		}
+		SheetRows rows = new SheetRows(xml, is);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(rows::close);
+	}
+
+	//the rows of a sheet, which holds the sheet open until they are exhausted or closed
+	private class SheetRows implements Iterator<Tuple<Integer,Map<Integer,String>>> {
+
+		private final XMLStreamReader xml;
+		private final InputStream is;
+		private Tuple<Integer,Map<Integer,String>> next = null;
+		private int rowIndex = -1;
+		private boolean done = false;
+
+		SheetRows(XMLStreamReader xml, InputStream is) {
+			this.xml = xml;
+			this.is = is;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done) {
+				try {
+					next = readRow();
+				} catch (XMLStreamException e) {
+					close();
+					throw new UncheckedIOException(new IOException(e));
+				}
+				if (next == null) close();
+			}
+			return next != null;
+		}
+
+		@Override
+		public Tuple<Integer, Map<Integer, String>> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			Tuple<Integer,Map<Integer,String>> out = next;
+			next = null;
+			return out;
+		}
+
+		void close() {
+			if (done) return;
+			done = true;
+			try {
+				xml.close();
+				is.close();
+			} catch (XMLStreamException e) {
+				throw new UncheckedIOException(new IOException(e));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		//the next row with any values, or null at the end of the sheet
+		private Tuple<Integer,Map<Integer,String>> readRow() throws XMLStreamException {
+			while (xml.hasNext()) {
+				if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("row")) {
+					String r = attribute(xml, "r");
+					rowIndex = r == null ? rowIndex+1 : Integer.parseInt(r)-1;
+					Map<Integer,String> cells = new LinkedHashMap<>();
+					readCells(xml, (column, type, style, value, formula) -> {
+						String out = format(type, style, value, formula);
+						if (out != null) cells.put(column, out);
+					});
+					if (!cells.isEmpty()) return Tuple.create(rowIndex, cells);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a whole sheet into a typed grid, keeping numbers as doubles, booleans as 0 or 1 and dates as
+	 * epoch milliseconds rather than formatting them as strings.
+	 * @throws IOException if the sheet cannot be read
+	 */
+	void readTyped(String sheetName, CellGrid grid) throws IOException {
+		try (InputStream is = open(sheetName)) {
+			XMLStreamReader xml = FACTORY.createXMLStreamReader(is);
+			int rowIndex = -1;
+			while (xml.hasNext()) {
+				if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("row")) {
+					String r = attribute(xml, "r");
+					rowIndex = r == null ? rowIndex+1 : Integer.parseInt(r)-1;
+					int row = rowIndex;
+					readCells(xml, (column, type, style, value, formula) -> addTyped(grid, row, column, type, style, value, formula));
+				}
+			}
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private InputStream open(String sheetName) throws IOException {
+		if (!sheets.containsKey(sheetName)) throw new NoSuchElementException("No sheet named "+sheetName);
+		try {
+			return reader.getSheet(sheets.get(sheetName));
+		} catch (OpenXML4JException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static interface RawCellConsumer {
+		void accept(int column, String type, String style, String value, boolean formula);
+	}
+
+	//the attributes and raw value of each cell up to the end of the current row
+	private static void readCells(XMLStreamReader xml, RawCellConsumer out) throws XMLStreamException {
+		int columnIndex = -1;
+		String type = null;
+		String style = null;
+		String value = null;
+		boolean formula = false;
+		while (xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = xml.getLocalName();
+				if (name.equals("c")) {
+					String ref = attribute(xml, "r");
+					columnIndex = ref == null ? columnIndex+1 : column(ref);
+					type = attribute(xml, "t");
+					style = attribute(xml, "s");
+					value = null;
+					formula = false;
+				} else if (name.equals("f")) {
+					formula = true;
+				} else if (name.equals("v")) {
+					value = xml.getElementText();
+				} else if (name.equals("t") && "inlineStr".equals(type)) {
+					value = (value == null ? "" : value) + xml.getElementText();
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				String name = xml.getLocalName();
+				if (name.equals("c")) {
+					out.accept(columnIndex, type, style, value, formula);
+				} else if (name.equals("row")) {
+					break;
+				}
+			}
+		}
+	}
+
+	//the zero based column of a cell reference such as AB12
+	private static int column(String ref) {
+		int out = 0;
+		for (int i=0; i<ref.length(); i++) {
+			char c = ref.charAt(i);
+			if (c < 'A' || c > 'Z') break;
+			out = out*26 + (c-'A'+1);
+		}
+		return out-1;
+	}
+
+	//the value with its type as it would be added by ExcelCell.addTo(CellGrid)
+	private void addTyped(CellGrid grid, int row, int column, String type, String style, String value, boolean formula) {
+		if (value == null) return;
+		if (type == null || type.equals("n")) {
+			double number = Double.parseDouble(value);
+			if (!formula && style != null && DateUtil.isValidExcelDate(number) && isDateStyle(Integer.parseInt(style))) {
+				grid.add(row, column, ColumnType.TIMESTAMP, DateUtil.getJavaDate(number, date1904).getTime());
+			} else {
+				grid.add(row, column, ColumnType.DOUBLE, number);
+			}
+		} else if (type.equals("b")) {
+			grid.add(row, column, ColumnType.BOOLEAN, value.equals("1") || value.equalsIgnoreCase("true") ? 1 : 0);
+		} else {
+			String out = format(type, style, value, formula);
+			if (out != null) grid.add(row, column, out);
+		}
+	}
+
+	//the value as it would be given by ExcelCell.toString()
+	private String format(String type, String style, String value, boolean formula) {
+		if (value == null) return null;
+		if (type == null || type.equals("n")) {
+			double number = Double.parseDouble(value);
+			if (!formula && style != null && DateUtil.isValidExcelDate(number) && isDateStyle(Integer.parseInt(style))) {
+				return CellFormat.date(DateUtil.getJavaDate(number, date1904));
+			}
+			return numbers.number(number);
+		}
+		switch (type) {
+		case "s": return sharedStrings().get(Integer.parseInt(value));
+		case "b": return value.equals("1") || value.equalsIgnoreCase("true") ? "true" : "false";
+		case "e": return null;
+		default: return value; //str and inlineStr
+		}
+	}
+
+}
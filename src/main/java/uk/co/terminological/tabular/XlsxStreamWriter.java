@@ -0,0 +1,222 @@
+package uk.co.terminological.tabular;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Writes the sheets of an xlsx file row by row to temporary files as they are added, so that only the row being
+ * written, and any rows sampled for column widths, are held in memory. The workbook itself is created with
+ * empty sheets and when it is written the sheet XML in the package is replaced by the temporary files. Values are written as for
+ * {@link ExcelCell#setValue(Object)}, with strings inline rather than in a shared strings table.
+ * @author terminological
+ *
+ */
+class XlsxStreamWriter {
+
+	private static final int BUFFER_SIZE = 1<<16;
+
+	private final XSSFWorkbook template = new XSSFWorkbook();
+	private final Map<String,File> parts = new LinkedHashMap<>(); //package part name to the temporary file with its XML
+
+	XSSFWorkbook getWorkbook() {
+		return template;
+	}
+
+	/**
+	 * Writes a sheet from an iterator of rows, each a list of cell values from the first column.
+	 * Null values leave the cell empty. If the column widths are estimated the sample rows are held 
+	 * in memory until the widths are known.
+	 * @return the number of rows written
+	 */
+	long addSheet(String name, Iterator<? extends List<?>> rows, Excel.ColumnWidths columnWidths) throws IOException {
+		XSSFSheet sheet = template.createSheet(name);
+		File tmp = File.createTempFile("sheet", ".xml");
+		tmp.deleteOnExit();
+		parts.put(sheet.getPackagePart().getPartName().getName().substring(1), tmp);
+		Excel.ColumnWidths.Estimate widths = columnWidths.withoutMeasuring().estimate();
+		List<List<?>> sample = new ArrayList<>();
+		while (rows.hasNext() && widths.sampled(sample.size())) {
+			List<?> row = rows.next();
+			int col = 0;
+			for (Object o: row) widths.observe(sample.size(), col++, o);
+			sample.add(row);
+		}
+		long rowNum = 0;
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">");
+			writeWidths(out, widths);
+			out.write("<sheetData>\n");
+			for (List<?> row: sample) {
+				rowNum++;
+				writeRow(out, rowNum, row);
+			}
+			sample = null;
+			while (rows.hasNext()) {
+				rowNum++;
+				writeRow(out, rowNum, rows.next());
+			}
+			out.write("</sheetData></worksheet>\n");
+		}
+		return rowNum;
+	}
+
+	private static void writeWidths(Writer out, Excel.ColumnWidths.Estimate widths) throws IOException {
+		if (widths.isFixed()) {
+			out.write("<sheetFormatPr baseColWidth=\"");
+			out.write(Integer.toString(widths.fixedWidth()));
+			out.write("\" defaultRowHeight=\"15\"/>");
+		}
+		int[] chars = widths.widths();
+		boolean any = false;
+		for (int i=0; i<chars.length; i++) {
+			if (chars[i] == 0) continue;
+			if (!any) out.write("<cols>");
+			any = true;
+			String col = Integer.toString(i+1);
+			out.write("<col min=\""+col+"\" max=\""+col+"\" width=\""+chars[i]+"\" customWidth=\"1\"/>");
+		}
+		if (any) out.write("</cols>");
+	}
+
+	private static void writeRow(Writer out, long rowNum, List<?> values) throws IOException {
+		String r = Long.toString(rowNum);
+		out.write("<row r=\"");
+		out.write(r);
+		out.write("\">");
+		int col = 0;
+		for (Object o: values) {
+			if (o != null) {
+				out.write("<c r=\"");
+				out.write(columnName(col));
+				out.write(r);
+				out.write('"');
+				writeValue(out, o);
+				out.write("</c>");
+			}
+			col++;
+		}
+		out.write("</row>\n");
+	}
+
+	//the type attribute and value of a cell, as ExcelCell.setValue would set it
+	private static void writeValue(Writer out, Object o) throws IOException {
+		if (o instanceof Boolean) {
+			out.write(" t=\"b\"><v>");
+			out.write((Boolean) o ? "1" : "0");
+			out.write("</v>");
+		} else if (o instanceof Double || o instanceof Integer || o instanceof Float) {
+			double d = ((Number) o).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				out.write(" t=\"e\"><v>#NUM!</v>");
+			} else {
+				out.write("><v>");
+				out.write(Double.toString(d));
+				out.write("</v>");
+			}
+		} else if (o instanceof Date) {
+			out.write("><v>");
+			out.write(Double.toString(DateUtil.getExcelDate((Date) o)));
+			out.write("</v>");
+		} else {
+			String s = o.toString();
+			out.write(" t=\"inlineStr\"><is><t");
+			if (!s.isEmpty() && (Character.isWhitespace(s.charAt(0)) || Character.isWhitespace(s.charAt(s.length()-1)))) {
+				out.write(" xml:space=\"preserve\"");
+			}
+			out.write('>');
+			escape(out, s);
+			out.write("</t></is>");
+		}
+	}
+
+	private static void escape(Writer out, String s) throws IOException {
+		for (int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '&': out.write("&amp;"); break;
+			case '<': out.write("&lt;"); break;
+			case '>': out.write("&gt;"); break;
+			case '"': out.write("&quot;"); break;
+			case '\t':
+			case '\n':
+			case '\r': out.write(c); break;
+			default:
+				if (c >= 0x20 && c != 0xFFFE && c != 0xFFFF) out.write(c); //other characters are not allowed in XML
+			}
+		}
+	}
+
+	//the letters of a zero based column index
+	static String columnName(int col) {
+		StringBuilder out = new StringBuilder();
+		for (int i = col+1; i > 0; i = (i-1)/26) {
+			out.insert(0, (char) ('A' + (i-1)%26));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Writes the workbook with the streamed sheets in place of its empty ones
+	 */
+	void write(OutputStream os) throws IOException {
+		File tmp = File.createTempFile("workbook", ".xlsx");
+		try {
+			try (OutputStream out = new FileOutputStream(tmp)) {
+				template.write(out);
+			}
+			try (ZipFile zip = new ZipFile(tmp); ZipOutputStream out = new ZipOutputStream(os)) {
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					out.putNextEntry(new ZipEntry(entry.getName()));
+					if (parts.containsKey(entry.getName())) {
+						Files.copy(parts.get(entry.getName()).toPath(), out);
+					} else {
+						try (InputStream is = zip.getInputStream(entry)) {
+							copy(is, out);
+						}
+					}
+					out.closeEntry();
+				}
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	private static void copy(InputStream is, OutputStream os) throws IOException {
+		byte[] buf = new byte[BUFFER_SIZE];
+		int n;
+		while ((n = is.read(buf)) > 0) os.write(buf, 0, n);
+	}
+
+	/**
+	 * Deletes the temporary files of the sheets
+	 */
+	void close() {
+		for (File f: parts.values()) f.delete();
+	}
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 import uk.co.terminological.datatypes.NoMatchException;
 import uk.co.terminological.tabular.Excel;
 import uk.co.terminological.tabular.ExcelSheet;
+import uk.co.terminological.tabular.Table;
 
 public class ExcelTest {
 
@@ -47,6 +48,48 @@ public class ExcelTest {
 			.origin("C4");
 		
 		tmp3.getContents().stream().forEach(System.out::println);
+		
+		System.out.println("============");
+		
+		tmp3.getTable().toEavMap().stream().forEach(System.out::println);
+		
+		System.out.println("============");
+		
+		Excel streamed = Excel.streamFromFile(new File(file));
+		
+		ExcelSheet tmp4 = streamed.getSheet("displaced");
+		
+		tmp4.with()
+			.vertical()
+			.headerLabels()
+			.origin("C4");
+		
+		tmp4.streamContents().forEach(System.out::println);
+		
+		streamed.close();
+		
+		System.out.println("============");
+		
+		File out = File.createTempFile("excel_test", ".xlsx");
+		Excel writer = Excel.createStreaming();
+		writer.addSheet("displaced", tmp3.getContents());
+		writer.write(out);
+		writer.close();
+		
+		Excel.fromFile(out).getSheet("displaced").streamContents().forEach(System.out::println);
+		out.delete();
+		
+		System.out.println("============");
+		
+		xl.stream(sheet -> sheet.getContentsByRow().getEntitySet().size())
+			.forEach(System.out::println);
+		
+		System.out.println("============");
+		
+		Table typed = tmp3.getTypedTable();
+		for (int i=0; i<typed.columnCount(); i++) {
+			System.out.println(typed.getLabel(i)+"\t"+typed.getType(i));
+		}
 
 		
 		
@@ -5,15 +5,50 @@ package uk.co.terminological.excel.tabular;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import uk.co.terminological.datatypes.EavMap;
+import uk.co.terminological.datatypes.Tuple;
 import uk.co.terminological.parser.ParserException;
+import uk.co.terminological.parser.StateMachineExecutor.ErrorHandler;
 
+import uk.co.terminological.tabular.ColumnType;
 import uk.co.terminological.tabular.Delimited;
+import uk.co.terminological.tabular.DelimitedWriter;
+import uk.co.terminological.tabular.MetricsListener;
+import uk.co.terminological.tabular.StringDictionary;
+import uk.co.terminological.tabular.Table;
+import uk.co.terminological.tabular.TypedRow;
 import uk.co.terminological.tabular.Delimited.LabelNotAvailableException;
+import uk.co.terminological.tabular.Delimited.ValueFormatException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author terminological
@@ -63,6 +98,278 @@ public class DelimitedTest {
 		}
 	}
 
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited#streamContents()}.
+	 * @throws IOException 
+	 * @throws ParserException 
+	 */
+	@Test
+	public final void testStreamContentsLazily() throws IOException, ParserException {
+		try (Stream<?> s = Delimited.fromFile(xlsxCsv).csv().begin().streamContents()) {
+			assertEquals(32, s.count());
+		}
+		try (Stream<?> s = Delimited.fromFile(xlsxCsv).csv().begin().streamRows()) {
+			assertEquals(8, s.count());
+		}
+		try (Stream<?> s = Delimited.fromFile(xlsxCsv).csv().begin().streamContentsByRow()) {
+			assertEquals(32, s.count());
+		}
+		try (Stream<?> s = Delimited.fromFile(xlsxCsv, StandardCharsets.UTF_8, 16).csv().begin().streamRows()) {
+			assertEquals(8, s.count());
+		}
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited#streamRows()}, whose rows must behave as the
+	 * read only maps which were built by putting each value in column order, skipping nulls.
+	 * @throws ParserException 
+	 */
+	@Test
+	public final void testLabelledRows() throws ParserException {
+		String csv = "1,a,b,NULL\n2,NULL,c,d\n3,e,NULL,NULL\n";
+		String[] labels = {"id", "x", "y", "x"};
+		List<Map<String,String>> rows;
+		try (Stream<Tuple<String,Map<String,String>>> s = Delimited.fromReader(new StringReader(csv)).csv()
+				.withLabels(labels).nullable("NULL").noIdentifiers().begin().streamRows()) {
+			rows = s.map(Tuple::getValue).collect(Collectors.toList());
+		}
+		List<String[]> values = Arrays.asList(csv.split("\n")).stream().map(l -> l.split(",")).collect(Collectors.toList());
+		for (int r=0; r<rows.size(); r++) {
+			Map<String,String> expected = new HashMap<>();
+			for (int i=0; i<labels.length; i++) {
+				if (!values.get(r)[i].equals("NULL")) expected.put(labels[i], values.get(r)[i]);
+			}
+			Map<String,String> row = rows.get(r);
+			assertEquals(expected, row);
+			assertEquals(row, expected);
+			assertEquals(expected.hashCode(), row.hashCode());
+			assertEquals(expected.size(), row.size());
+			assertEquals(expected.keySet(), row.keySet());
+		}
+		//the earlier column is used where a later duplicate is null
+		assertEquals("a", rows.get(0).get("x"));
+		assertEquals("d", rows.get(1).get("x"));
+		assertEquals("e", rows.get(2).get("x"));
+		assertEquals(false, rows.get(2).containsKey("y"));
+		Map<String,String> row = rows.get(0);
+		for (Runnable write: Arrays.<Runnable>asList(
+				() -> row.put("x", "z"),
+				() -> row.remove("x"),
+				() -> row.clear(),
+				() -> row.entrySet().iterator().next().setValue("z"),
+				() -> {
+					Iterator<?> i = row.keySet().iterator();
+					i.next();
+					i.remove();
+				})) {
+			try {
+				write.run();
+				fail("the row is read only");
+			} catch (UnsupportedOperationException e) {
+				//expected
+			}
+		}
+		assertEquals("a", row.get("x"));
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited.Format#memoryMapped()}.
+	 * @throws ParserException 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testMemoryMapped() throws IOException, ParserException {
+		for (File f: new File[] {xlsxCsv, odsCsv, mysqlCsv}) {
+			String terminator = f == xlsxCsv ? "\r\n" : "\n";
+			EavMap<String,String,String> expected = Delimited.fromFile(f, StandardCharsets.UTF_8)
+					.separatedByEnclosedWith(",", "\"").terminator(terminator).parse(ErrorHandler.DEBUG).nullable("NULL").noIdentifiers().begin().getContents();
+			EavMap<String,String,String> mapped = Delimited.fromFile(f, StandardCharsets.UTF_8).memoryMapped()
+					.separatedByEnclosedWith(",", "\"").terminator(terminator).parse(ErrorHandler.DEBUG).nullable("NULL").noIdentifiers().begin().getContents();
+			assertEquals(
+					expected.stream().map(Object::toString).collect(Collectors.toList()), 
+					mapped.stream().map(Object::toString).collect(Collectors.toList()));
+		}
+		EavMap<String,String,String> tsv = Delimited.fromFile(xlsxTsv, StandardCharsets.UTF_8).memoryMapped().separatedByUnenclosed("\t").windows().parse(ErrorHandler.DEBUG).begin().getContents();
+		assertEquals("Vantage", tsv.get("7", "model"));
+		assertEquals("Black", tsv.get("7", "colour"));
+		//the default line ending is the same as the state machine's, so a windows line ending is part of the last field
+		EavMap<String,String,String> unix = Delimited.fromFile(xlsxTsv, StandardCharsets.UTF_8).memoryMapped().tsv().begin().getContents();
+		assertEquals("Black\r", unix.get("7", "colour\r"));
+		assertEquals(unix.get("7", "colour\r"), Delimited.fromFile(xlsxTsv, StandardCharsets.UTF_8).parallel(2).tsv().begin().getContents().get("7", "colour\r"));
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited.Format#parallel(int)}.
+	 * @throws ParserException 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testParallel() throws IOException, ParserException {
+		EavMap<String,String,String> expected = Delimited.fromFile(mysqlCsv, StandardCharsets.UTF_8).csv().noIdentifiers().begin().getContents();
+		EavMap<String,String,String> parallel = Delimited.fromFile(mysqlCsv, StandardCharsets.UTF_8).parallel(4).csv().noIdentifiers().begin().getContents();
+		assertEquals(
+				expected.stream().map(Object::toString).collect(Collectors.toList()), 
+				parallel.stream().map(Object::toString).collect(Collectors.toList()));
+		try (Stream<Tuple<String,Map<String,String>>> s = Delimited.fromFile(mysqlCsv, StandardCharsets.UTF_8).parallel(4).unordered().csv().noIdentifiers().begin().streamRows()) {
+			assertEquals(
+					expected.getEntitySet(),
+					s.map(Tuple::getKey).collect(Collectors.toSet()));
+		}
+		//an unordered stream closes the file when it is exhausted
+		long[] rows = {-1};
+		MetricsListener listener = new MetricsListener() {
+			@Override
+			public void rows(String source, long count) {
+				rows[0] = count;
+			}
+		};
+		assertEquals(expected.getEntitySet().size(), Delimited.fromFile(mysqlCsv, StandardCharsets.UTF_8).parallel(4).unordered().metrics(listener)
+				.csv().noIdentifiers().begin().streamRows().count());
+		assertEquals(expected.getEntitySet().size(), rows[0]);
+		try {
+			Delimited.fromFile(mysqlCsv).parallel(0);
+			fail("at least one thread is needed");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited#visitRows(uk.co.terminological.tabular.Delimited.RowVisitor)}.
+	 * @throws ParserException 
+	 * @throws FileNotFoundException 
+	 */
+	@Test
+	public final void testVisitRows() throws FileNotFoundException, ParserException {
+		long[] last = {-1};
+		long count = Delimited.fromFile(xlsxCsv).csv().begin().visitRows((n, fields) -> {
+			assertEquals(last[0]+1, n);
+			assertEquals(4, fields.size());
+			last[0] = n;
+			return true;
+		});
+		assertEquals(8, count);
+		assertEquals(3, Delimited.fromFile(xlsxCsv).memoryMapped().csv().begin().visitRows((n, fields) -> n < 2));
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited#streamTypedRows()}.
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testStreamTypedRows() throws IOException {
+		for (boolean mapped: new boolean[] {false, true}) {
+			Delimited.Format format = Delimited.fromFile(mysqlCsv, StandardCharsets.UTF_8);
+			if (mapped) format.memoryMapped();
+			try (Stream<TypedRow> s = format.csv().nullable("NULL")
+					.column("STR", ColumnType.STRING)
+					.column("SRL", ColumnType.INTEGER)
+					.column("SUPPRESS", ColumnType.BOOLEAN)
+					.column("CVF", ColumnType.DOUBLE)
+					.begin().streamTypedRows()) {
+				TypedRow first = s.findFirst().get();
+				assertEquals(0, first.getRecordNumber());
+				assertEquals("Infarctions, Myocardial", first.getString(0));
+				assertEquals(0, first.getInt(1));
+				assertEquals(false, first.getBoolean(2));
+				assertEquals(true, first.isNull(3));
+			}
+			Delimited.Format format2 = Delimited.fromFile(mysqlCsv, StandardCharsets.UTF_8);
+			if (mapped) format2.memoryMapped();
+			assertEquals(42*256 + 10*2304 + 2048, format2.csv().nullable("NULL")
+					.column("CVF", ColumnType.LONG)
+					.begin().streamTypedRows()
+					.filter(r -> !r.isNull(0)).mapToLong(r -> r.getLong(0)).sum());
+		}
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited#streamTypedRows()} where the memory mapped
+	 * and String paths must agree on values and on errors.
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testTypedRowPaths() throws IOException {
+		File file = File.createTempFile("delimited", ".csv");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "flag,day\n1,2020-02-29\nTRUE,2021-02-28\nyes,2021-02-30\n".getBytes(StandardCharsets.UTF_8));
+		List<String> messages = new ArrayList<>();
+		for (boolean mapped: new boolean[] {false, true}) {
+			Delimited.Format format = Delimited.fromFile(file, StandardCharsets.UTF_8);
+			if (mapped) format.memoryMapped();
+			Iterator<TypedRow> rows = format.csv().column("flag", ColumnType.BOOLEAN).column("day", ColumnType.DATE).begin().streamTypedRows().iterator();
+			TypedRow row = rows.next();
+			assertEquals(true, row.getBoolean(0));
+			assertEquals(LocalDate.of(2020, 2, 29), row.getDate(1));
+			row = rows.next();
+			assertEquals(true, row.getBoolean(0));
+			try {
+				rows.next();
+				fail("2021-02-30 is not a date");
+			} catch (ValueFormatException e) {
+				assertEquals(2, e.getRecordNumber());
+				assertEquals("day", e.getLabel());
+				assertTrue(e.getCause() instanceof DateTimeParseException);
+				messages.add(e.getMessage());
+			}
+		}
+		assertEquals(messages.get(0), messages.get(1));
+		Map<ColumnType,String> invalid = new HashMap<>();
+		invalid.put(ColumnType.INTEGER, "2147483648");
+		invalid.put(ColumnType.LONG, "12x");
+		invalid.put(ColumnType.DOUBLE, "1.2.3");
+		invalid.put(ColumnType.TIMESTAMP, "2021-02-28");
+		for (Map.Entry<ColumnType,String> value: invalid.entrySet()) {
+			Files.write(file.toPath(), ("value\n"+value.getValue()+"\n").getBytes(StandardCharsets.UTF_8));
+			messages.clear();
+			for (boolean mapped: new boolean[] {false, true}) {
+				Delimited.Format format = Delimited.fromFile(file, StandardCharsets.UTF_8);
+				if (mapped) format.memoryMapped();
+				try (Stream<TypedRow> s = format.csv().column("value", value.getKey()).begin().streamTypedRows()) {
+					s.count();
+					fail(value.getValue()+" is not a valid "+value.getKey());
+				} catch (ValueFormatException e) {
+					messages.add(e.getCause().getClass()+" "+e.getMessage());
+				}
+			}
+			assertEquals(messages.get(0), messages.get(1));
+		}
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited#getTable()}.
+	 * @throws ParserException 
+	 * @throws FileNotFoundException 
+	 */
+	@Test
+	public final void testGetTable() throws FileNotFoundException, ParserException {
+		EavMap<String,String,String> expected = Delimited.fromFile(xlsxCsv).csv().begin().getContents();
+		Table table = Delimited.fromFile(xlsxCsv).csv().begin().getTable();
+		assertEquals(8, table.rowCount());
+		assertEquals(5, table.distinctValues(table.indexOf("colour")));
+		assertEquals(
+				expected.stream().map(Object::toString).collect(Collectors.toList()), 
+				table.toEavMap().stream().map(Object::toString).collect(Collectors.toList()));
+		Table typed = Delimited.fromFile(xlsxCsv).csv().column("id", ColumnType.LONG).column("make", ColumnType.STRING).begin().getTable();
+		assertEquals(36, typed.longs(0).sum());
+		assertEquals("Saab", typed.getString(typed.rowIndexOf("6"), 1));
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited.Content#dictionaryPerColumn(int)}.
+	 * @throws ParserException 
+	 * @throws FileNotFoundException 
+	 */
+	@Test
+	public final void testDictionary() throws FileNotFoundException, ParserException {
+		Delimited.Content content = Delimited.fromFile(mysqlCsv).csv().dictionaryPerColumn(10);
+		EavMap<Long,Integer,String> byRow = content.begin().getContentsByRow();
+		assertTrue(byRow.get(0L, 1) == byRow.get(1L, 1));
+		StringDictionary dictionary = content.getDictionary().get();
+		assertEquals(61*18, dictionary.getHits() + dictionary.getMisses());
+		assertTrue(dictionary.getHitRate() > 0.5);
+	}
+
 	/**
 	 * Test method for {@link uk.co.terminological.tabular.Delimited#streamContents()}.
 	 *
@@ -96,4 +403,207 @@ public class DelimitedTest {
 	}
 	*/
 
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited.Format#metrics(uk.co.terminological.tabular.MetricsListener)}.
+	 * @throws ParserException 
+	 * @throws FileNotFoundException 
+	 */
+	@Test
+	public final void testMetrics() throws FileNotFoundException, ParserException {
+		for (boolean mapped: new boolean[] {false, true}) {
+			Map<String,Long> counts = new HashMap<>();
+			MetricsListener listener = new MetricsListener() {
+				public void rows(String source, long rows) {counts.merge("rows", rows, Long::sum);}
+				public void cells(String source, long cells) {counts.merge("cells", cells, Long::sum);}
+				public void bytes(String source, long bytes) {counts.merge("bytes", bytes, Long::sum);}
+				public void phase(String source, Phase phase, long nanos) {counts.merge(phase.toString(), 1L, Long::sum);}
+			};
+			Delimited.Format format = Delimited.fromFile(xlsxCsv).metrics(listener);
+			if (mapped) format.memoryMapped();
+			format.csv().begin().getContents();
+			assertEquals(8L, (long) counts.get("rows"));
+			assertEquals(32L, (long) counts.get("cells"));
+			assertEquals(xlsxCsv.length(), (long) counts.get("bytes"));
+			assertEquals(1L, (long) counts.get("PARSE"));
+			assertEquals(1L, (long) counts.get("BUILD"));
+		}
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.DelimitedWriter#write(java.util.stream.Stream)}.
+	 * @throws ParserException 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testWriter() throws IOException, ParserException {
+		List<List<?>> rows = Arrays.asList(
+				Arrays.asList("id", "text", "number"),
+				Arrays.asList("1", "a, b", 1.5),
+				Arrays.asList("2", "say \"hi\"", null),
+				Arrays.asList("3", "back\\slash", 3L));
+		StringWriter csv = new StringWriter();
+		try (DelimitedWriter writer = DelimitedWriter.toWriter(csv).csv()) {
+			assertEquals(4L, writer.write(rows.stream()));
+		}
+		assertEquals("id,text,number\n1,\"a, b\",1.5\n2,\"say \"\"hi\"\"\",\n3,back\\slash,3\n", csv.toString());
+		EavMap<String,String,String> read = Delimited.fromReader(new StringReader(csv.toString())).csv().begin().getContents();
+		assertEquals("a, b", read.get("1", "text"));
+		assertEquals("say \"hi\"", read.get("2", "text"));
+		assertEquals("back\\slash", read.get("3", "text"));
+
+		StringWriter escaped = new StringWriter();
+		try (DelimitedWriter writer = DelimitedWriter.toWriter(escaped).separatedByEnclosedWithEscapedBy(",", "'", "\\").alwaysEnclosed().windows()) {
+			writer.write(rows.subList(0, 3).stream());
+		}
+		assertTrue(escaped.toString().startsWith("'id','text','number'\r\n"));
+		assertEquals(
+				read.stream().filter(t -> !t.getFirst().equals("3")).map(Object::toString).sorted().collect(Collectors.toList()),
+				Delimited.fromReader(new StringReader(escaped.toString())).separatedByEnclosedWithEscapedBy(",", "'", "\\").terminator("\r\n")
+					.parse(ErrorHandler.DEBUG).begin().getContents().stream().map(Object::toString).sorted().collect(Collectors.toList()));
+
+		try (DelimitedWriter writer = DelimitedWriter.toWriter(new StringWriter()).tsv()) {
+			writer.writeRow(Arrays.asList("a\tb"));
+			fail("A tab cannot be written to an unenclosed tsv field");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+
+		//whole numbers are written digit by digit, and are enclosed if the separator could be part of them
+		List<?> numbers = Arrays.asList(0, -7, (short) 12, (byte) -3, 9, 10, -99, 100, Integer.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+		StringWriter whole = new StringWriter();
+		try (DelimitedWriter writer = DelimitedWriter.toWriter(whole).csv()) {
+			for (int i=0; i<2000; i++) writer.writeRow(numbers);
+		}
+		String row = "0,-7,12,-3,9,10,-99,100,-2147483648,-9223372036854775808,9223372036854775807\n";
+		assertEquals(String.join("", Collections.nCopies(2000, row)), whole.toString());
+		StringWriter enclosed = new StringWriter();
+		try (DelimitedWriter writer = DelimitedWriter.toWriter(enclosed).csv().alwaysEnclosed()) {
+			writer.writeRow(numbers.subList(0, 2));
+		}
+		assertEquals("\"0\",\"-7\"\n", enclosed.toString());
+		StringWriter dashed = new StringWriter();
+		try (DelimitedWriter writer = DelimitedWriter.toWriter(dashed).separatedByEnclosedWith("-", "\"")) {
+			writer.writeRow(numbers.subList(0, 2));
+		}
+		assertEquals("0-\"-7\"\n", dashed.toString());
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.DelimitedWriter#write(EavMap, List)}.
+	 * @throws ParserException 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testWriteContents() throws IOException, ParserException {
+		EavMap<String,String,String> expected = Delimited.fromFile(xlsxCsv).csv().begin().getContents();
+		File file = File.createTempFile("delimited", ".csv");
+		file.deleteOnExit();
+		try (DelimitedWriter writer = DelimitedWriter.toFile(file).csv()) {
+			assertEquals(8L, writer.write(expected, Arrays.asList("make", "model", "colour")));
+		}
+		EavMap<String,String,String> read = Delimited.fromFile(file).csv().begin().getContents();
+		assertEquals(
+				expected.stream().filter(t -> !t.getSecond().equals("id")).map(Object::toString).sorted().collect(Collectors.toList()),
+				read.stream().filter(t -> !t.getSecond().equals("entity name")).map(Object::toString).sorted().collect(Collectors.toList()));
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited#fromFile(java.io.File)} with compressed files.
+	 * @throws ParserException 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testCompressed() throws IOException, ParserException {
+		List<String> expected = Delimited.fromFile(xlsxCsv).csv().begin().getContents()
+				.stream().map(Object::toString).collect(Collectors.toList());
+		File gz = File.createTempFile("delimited", ".csv.gz");
+		gz.deleteOnExit();
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gz))) {
+			Files.copy(xlsxCsv.toPath(), out);
+		}
+		File zip = File.createTempFile("delimited", ".zip");
+		zip.deleteOnExit();
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+			out.putNextEntry(new ZipEntry(xlsxCsv.getName()));
+			Files.copy(xlsxCsv.toPath(), out);
+		}
+		for (File file: new File[] {gz, zip}) {
+			Map<String,Long> counts = new HashMap<>();
+			MetricsListener listener = new MetricsListener() {
+				public void bytes(String source, long bytes) {counts.merge("bytes", bytes, Long::sum);}
+			};
+			// a small buffer so that the file is passed between threads in several parts
+			assertEquals(expected, Delimited.fromFile(file, Charset.defaultCharset(), 64).metrics(listener).csv().begin().getContents()
+					.stream().map(Object::toString).collect(Collectors.toList()));
+			assertEquals(file.length(), (long) counts.get("bytes"));
+		}
+		try {
+			Delimited.fromFile(gz).memoryMapped();
+			fail("A compressed file cannot be memory mapped");
+		} catch (UnsupportedOperationException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited.Format#pipelined(int)}.
+	 * @throws ParserException 
+	 * @throws IOException 
+	 */
+	@Test
+	public final void testPipelined() throws IOException, ParserException {
+		// enough rows for several batches to be converted concurrently
+		File file = File.createTempFile("delimited", ".csv");
+		file.deleteOnExit();
+		try (DelimitedWriter writer = DelimitedWriter.toFile(file).csv()) {
+			writer.writeRow(Arrays.asList("id", "number", "text"));
+			for (int i=0; i<10000; i++) writer.writeRow(Arrays.asList(i, i % 7, "text, "+(i % 13)));
+		}
+		EavMap<String,String,String> expected = Delimited.fromFile(file).csv().begin().getContents();
+		assertEquals(
+				expected.stream().map(Object::toString).collect(Collectors.toList()),
+				Delimited.fromFile(file).pipelined(3).csv().begin().getContents().stream().map(Object::toString).collect(Collectors.toList()));
+		try (Stream<Tuple<String,Map<String,String>>> rows = Delimited.fromFile(file).pipelined(3).csv().begin().streamRows()) {
+			long[] next = {0};
+			rows.forEach(row -> assertEquals(Long.toString(next[0]++), row.getKey()));
+			assertEquals(10000L, next[0]);
+		}
+		Table table = Delimited.fromFile(file).pipelined(3).csv().column("id", ColumnType.LONG).column("number", ColumnType.LONG).begin().getTable();
+		assertEquals(10000, table.rowCount());
+		assertEquals(9999L*10000/2, table.longs(0).sum());
+		Delimited.Content content = Delimited.fromFile(file).pipelined().csv();
+		content.begin();
+		long count = 0;
+		while (content.hasNext()) assertEquals(count++, (long) content.next().get().getKey());
+		assertEquals(10000L, count);
+	}
+
+	/**
+	 * Test method for {@link uk.co.terminological.tabular.Delimited.Format#pipelined(int)} with unlabelled rows
+	 * which get wider in later batches, so the column index is widened on the conversion workers.
+	 * @throws ParserException
+	 */
+	@Test
+	public final void testPipelinedWidening() throws ParserException {
+		StringBuilder csv = new StringBuilder();
+		for (int i=0; i<10000; i++) {
+			csv.append(i);
+			//wider rows in each batch, and the widest in a late batch
+			for (int j=0; j<(i % 1500 == 1499 ? i / 1000 : i % 3); j++) csv.append(",v").append(j);
+			csv.append("\n");
+		}
+		for (int run=0; run<5; run++) {
+			EavMap<String,String,String> expected = Delimited.fromReader(new StringReader(csv.toString())).csv().noLabels(0).begin().getContents();
+			assertEquals("v7", expected.get("8999", "8"));
+			try (Stream<Tuple<String,Map<String,String>>> rows = Delimited.fromReader(new StringReader(csv.toString())).pipelined(3).csv().noLabels(0).begin().streamRows()) {
+				long[] next = {0};
+				rows.forEach(row -> {
+					String id = Long.toString(next[0]++);
+					assertEquals(id, row.getKey());
+					assertEquals(expected.get(id), row.getValue());
+				});
+				assertEquals(10000L, next[0]);
+			}
+		}
+	}
 }
@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package uk.co.terminological.tabular;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import uk.co.terminological.mappers.DateFormatString;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author terminological
+ *
+ */
+public class CellFormatTest {
+
+	/**
+	 * Test method for {@link CellFormat#number(double)}, which must give the same strings as {@link Double#toString(double)}
+	 * unless whole numbers are formatted plainly.
+	 */
+	@Test
+	public final void testNumber() {
+		CellFormat format = new CellFormat(false);
+		for (double value: new double[] {0, -0.0, 1, -1, 1.5, 9999999, 1e7, -1e7, 123456789, 1e15, 1e16, 0.1, Double.NaN, Double.POSITIVE_INFINITY}) {
+			assertEquals(Double.toString(value), format.number(value));
+		}
+		CellFormat plain = new CellFormat(true);
+		assertEquals("0", plain.number(0));
+		assertEquals("-0.0", plain.number(-0.0));
+		assertEquals("-12", plain.number(-12));
+		assertEquals("123456789", plain.number(123456789));
+		assertEquals("999999999999999", plain.number(999999999999999.0));
+		assertEquals("1.0E15", plain.number(1e15));
+		assertEquals("1.5", plain.number(1.5));
+	}
+
+	/**
+	 * Test method for {@link CellFormat#isDate(Cell)}, which must agree with {@link DateUtil#isCellDateFormatted(Cell)}
+	 * for cells which share the styles it remembers.
+	 */
+	@Test
+	public final void testIsDate() {
+		XSSFWorkbook wb = new XSSFWorkbook();
+		Sheet sheet = wb.createSheet();
+		CellStyle date = wb.createCellStyle();
+		date.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+		CellStyle number = wb.createCellStyle();
+		number.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("0.00"));
+		CellFormat format = new CellFormat(false);
+		List<Cell> cells = new ArrayList<>();
+		for (int i=0; i<6; i++) {
+			Row row = sheet.createRow(i);
+			Cell cell = row.createCell(0);
+			cell.setCellValue(i == 5 ? -1 : 40000+i);
+			if (i % 3 == 0) cell.setCellStyle(date);
+			if (i % 3 == 1) cell.setCellStyle(number);
+			cells.add(cell);
+		}
+		for (Cell cell: cells) {
+			assertEquals(DateUtil.isCellDateFormatted(cell), format.isDate(cell));
+		}
+		//the remembered style still depends on the value
+		assertEquals(true, format.isDate(cells.get(3)));
+		cells.get(3).setCellValue(-1);
+		assertEquals(false, format.isDate(cells.get(3)));
+	}
+
+	/**
+	 * Test method for {@link CellFormat#DEFAULT}, which is shared by the cells of all workbooks, so must not
+	 * remember styles by their index.
+	 */
+	@Test
+	public final void testDefault() {
+		for (String dataFormat: new String[] {"yyyy-mm-dd", "0.00", "yyyy-mm-dd"}) {
+			XSSFWorkbook wb = new XSSFWorkbook();
+			CellStyle style = wb.createCellStyle();
+			style.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat(dataFormat));
+			Cell cell = wb.createSheet().createRow(0).createCell(0);
+			cell.setCellValue(40000);
+			cell.setCellStyle(style);
+			assertEquals(DateUtil.isCellDateFormatted(cell), CellFormat.DEFAULT.isDate(cell));
+			assertEquals(DateUtil.isCellDateFormatted(cell), new ExcelCell(cell).toString().contains("T"));
+		}
+	}
+
+	/**
+	 * Test method for {@link CellFormat#date(Date)}, which must give the same strings on each thread as the shared format.
+	 * @throws ExecutionException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public final void testDate() throws InterruptedException, ExecutionException {
+		List<Date> dates = new ArrayList<>();
+		for (long i=0; i<200; i++) dates.add(new Date(i * 86400000L * 37 + i * 1234567));
+		List<String> expected = new ArrayList<>();
+		for (Date date: dates) expected.add(DateFormatString.ISO_DATE_TIME_ZONE_FORMAT.format(date));
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<String>>> results = new ArrayList<>();
+			for (int t=0; t<4; t++) {
+				results.add(pool.submit(() -> {
+					List<String> out = new ArrayList<>();
+					for (Date date: dates) out.add(CellFormat.date(date));
+					return out;
+				}));
+			}
+			for (Future<List<String>> result: results) assertEquals(expected, result.get());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
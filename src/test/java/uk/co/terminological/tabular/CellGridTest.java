@@ -0,0 +1,115 @@
+/**
+ *
+ */
+package uk.co.terminological.tabular;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author terminological
+ *
+ */
+public class CellGridTest {
+
+	//the cells of a grid in the order of its positions as row, column and value
+	static List<String> cells(CellGrid grid) {
+		List<String> out = new ArrayList<>();
+		for (int i=0; i<grid.size(); i++) out.add(grid.row(i)+"\t"+grid.column(i)+"\t"+grid.value(i));
+		return out;
+	}
+
+	/**
+	 * Test method for {@link CellGrid#seal()}, which must sort cells added out of order into row major order,
+	 * keeping the later value of a duplicate cell.
+	 */
+	@Test
+	public final void testSeal() {
+		CellGrid grid = new CellGrid();
+		grid.add(1, 2, "c");
+		grid.add(0, 5, "b");
+		grid.add(1, 0, "x");
+		grid.add(0, 1, "a");
+		grid.add(1, 0, "y");
+		grid.add(70000, 0, "d");
+		grid.add(1, 70000, "e");
+		grid.seal();
+		assertEquals(Arrays.asList("0\t1\ta", "0\t5\tb", "1\t0\ty", "1\t2\tc", "1\t70000\te", "70000\t0\td"), cells(grid));
+		assertEquals("y", grid.get(1, 0));
+		assertNull(grid.get(1, 1));
+		Map<Integer,String> row = new LinkedHashMap<>();
+		row.put(0, "y");
+		row.put(2, "c");
+		row.put(70000, "e");
+		assertEquals(row, grid.rowValues(1));
+		assertEquals(new ArrayList<>(row.keySet()), new ArrayList<>(grid.rowValues(1).keySet()));
+	}
+
+	/**
+	 * Test method for {@link CellGrid#columnMajor()} and {@link CellGrid#columnValues(int)}, which must order the
+	 * cells by column then row.
+	 */
+	@Test
+	public final void testColumnMajor() {
+		CellGrid grid = new CellGrid();
+		Random random = new Random(0);
+		List<long[]> cells = new ArrayList<>();
+		for (int i=0; i<500; i++) {
+			int row = random.nextInt(50), column = random.nextInt(20);
+			grid.add(row, column, row+","+column);
+			cells.add(new long[] {column, row});
+		}
+		grid.seal();
+		long previous = -1;
+		for (int i=0; i<grid.size(); i++) {
+			long key = CellGrid.key(grid.row(i), grid.column(i));
+			assertEquals(true, key > previous);
+			previous = key;
+		}
+		int[] order = grid.columnMajor();
+		assertEquals(grid.size(), order.length);
+		previous = -1;
+		for (int i: order) {
+			long key = CellGrid.key(grid.column(i), grid.row(i));
+			assertEquals(true, key > previous);
+			previous = key;
+		}
+		for (long[] cell: cells) {
+			int column = (int) cell[0], row = (int) cell[1];
+			assertEquals(row+","+column, grid.columnValues(column).get(row));
+		}
+		List<Integer> rows = new ArrayList<>(grid.columnValues(3).keySet());
+		List<Integer> sortedRows = new ArrayList<>(rows);
+		sortedRows.sort(null);
+		assertEquals(sortedRows, rows);
+		assertEquals(0, grid.columnValues(25).size());
+	}
+
+	/**
+	 * Test method for {@link CellGrid#CellGrid(CellFormat)}, which must keep the types and numbers of the cells
+	 * in step with their keys when they are sorted.
+	 */
+	@Test
+	public final void testTypedSeal() {
+		CellGrid grid = new CellGrid(new CellFormat(true));
+		grid.add(2, 0, ColumnType.DOUBLE, 2.5);
+		grid.add(0, 1, "text");
+		grid.add(1, 0, ColumnType.BOOLEAN, 1);
+		grid.add(0, 0, ColumnType.DOUBLE, 3);
+		grid.seal();
+		assertEquals(Arrays.asList("0\t0\t3", "0\t1\ttext", "1\t0\ttrue", "2\t0\t2.5"), cells(grid));
+		assertEquals(ColumnType.STRING, grid.type(1));
+		assertEquals(ColumnType.BOOLEAN, grid.type(2));
+		assertEquals(2.5, grid.number(3), 0);
+	}
+
+}
@@ -0,0 +1,70 @@
+/**
+ *
+ */
+package uk.co.terminological.tabular;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author terminological
+ *
+ */
+public class DecompressingChannelTest {
+
+	//a source which blocks reads until it is closed, ignoring interrupts, as a socket or pipe may
+	static class BlockingSource implements ReadableByteChannel {
+
+		final CountDownLatch reading = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			reading.countDown();
+			while (true) {
+				try {
+					closed.await();
+					return -1;
+				} catch (InterruptedException e) {
+					//ignored
+				}
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return closed.getCount() > 0;
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+	}
+
+	/**
+	 * Test method for {@link DecompressingChannel#close()}, which must release a decompressing thread blocked
+	 * reading a source that does not respond to interrupts.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test(timeout = 10000)
+	public final void testCloseBlocked() throws IOException, InterruptedException {
+		BlockingSource source = new BlockingSource();
+		DecompressingChannel channel = new DecompressingChannel(source, DecompressingChannel.Compression.GZIP, 1024, "blocked");
+		source.reading.await();
+		long start = System.nanoTime();
+		channel.close();
+		assertTrue(System.nanoTime() - start < DecompressingChannel.CLOSE_MILLIS * 1000000L);
+		assertEquals(false, source.isOpen());
+		assertEquals(false, channel.isOpen());
+	}
+
+}
@@ -0,0 +1,155 @@
+/**
+ *
+ */
+package uk.co.terminological.tabular;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import uk.co.terminological.datatypes.EavMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author terminological
+ *
+ */
+public class ExcelExportTest {
+
+	//the non empty cells of a sheet as row, column and value
+	static List<String> cells(ExcelSheet sheet) {
+		return sheet.streamContentsByRow().map(t -> t.getFirst()+"\t"+t.getSecond()+"\t"+t.getThird()).sorted().collect(Collectors.toList());
+	}
+
+	/**
+	 * Test method for {@link Excel#addSheet(String, EavMap, List)}, which must put each attribute in the column of
+	 * the sort order whatever the order of the attributes in the map, and skip attributes which are not in the sort order.
+	 * @throws IOException
+	 */
+	@Test
+	public final void testColumnPermutation() throws IOException {
+		EavMap<String,String,String> map = new EavMap<>();
+		map.add("e1", "c", "c1").add("e1", "a", "a1").add("e1", "z", "z1").add("e1", "b", "b1");
+		map.add("e2", "b", "b2").add("e2", "c", "c2");
+		List<String> sortOrder = Arrays.asList("a", "b", "c");
+		List<String> expected = Arrays.asList(
+				"0\t0\tentity name", "0\t1\ta", "0\t2\tb", "0\t3\tc",
+				"1\t0\te1", "1\t1\ta1", "1\t2\tb1", "1\t3\tc1",
+				"2\t0\te2", "2\t2\tb2", "2\t3\tc2");
+		Excel excel = Excel.create().addSheet("s", map, sortOrder);
+		assertEquals(expected, cells(excel.getSheet("s")));
+		//the streaming writer uses the same columns
+		File file = File.createTempFile("export", ".xlsx");
+		file.deleteOnExit();
+		Excel streaming = Excel.createStreaming().addSheet("s", map, sortOrder);
+		streaming.write(file);
+		streaming.close();
+		Excel read = Excel.fromFile(file);
+		assertEquals(expected, cells(read.getSheet("s")));
+		read.close();
+	}
+
+	/**
+	 * Test method for {@link ExcelCell.ColumnWriters}, which must set the same values as {@link ExcelCell#write(Cell, Object)}
+	 * when the class of the values in a column changes.
+	 */
+	@Test
+	public final void testColumnWriters() {
+		List<Object> values = Arrays.asList(1, 2.5, "x", 0.1f, 0.2f, true, new Date(0), null, "y", 3, 40);
+		XSSFWorkbook wb = new XSSFWorkbook();
+		Sheet sheet = wb.createSheet();
+		ExcelCell.ColumnWriters writers = new ExcelCell.ColumnWriters();
+		for (int i=0; i<values.size(); i++) {
+			Row row = sheet.createRow(i);
+			ExcelCell.write(row.createCell(0), values.get(i));
+			writers.write(row.createCell(1), 1, values.get(i));
+			//a column beyond the initial capacity
+			writers.write(row.createCell(i+20), i+20, values.get(i));
+		}
+		for (int i=0; i<values.size(); i++) {
+			Row row = sheet.getRow(i);
+			String expected = new ExcelCell(row.getCell(0)).toString();
+			assertEquals(row.getCell(0).getCellType(), row.getCell(1).getCellType());
+			assertEquals(expected, new ExcelCell(row.getCell(1)).toString());
+			assertEquals(expected, new ExcelCell(row.getCell(i+20)).toString());
+		}
+		assertEquals(0.1, sheet.getRow(3).getCell(1).getNumericCellValue(), 0);
+	}
+
+	/**
+	 * Test method for {@link Excel.ColumnWidths#estimated(int)}, which measures only the sample rows.
+	 */
+	@Test
+	public final void testEstimatedWidths() {
+		Excel.ColumnWidths.Estimate widths = Excel.ColumnWidths.estimated(2).estimate();
+		assertEquals(true, widths.sampled(1));
+		assertEquals(false, widths.sampled(2));
+		widths.observe(0, 0, "id");
+		widths.observe(0, 2, "description");
+		widths.observe(1, 0, 12345);
+		widths.observe(1, 1, null);
+		widths.observe(1, 2, String.join("", Collections.nCopies(300, "x")));
+		widths.observe(2, 1, "not sampled");
+		assertArrayEquals(new int[] {6, 0, 255}, widths.widths());
+		XSSFWorkbook wb = new XSSFWorkbook();
+		Sheet sheet = wb.createSheet();
+		int defaultWidth = sheet.getColumnWidth(1);
+		widths.apply(sheet);
+		assertEquals(6*256, sheet.getColumnWidth(0));
+		assertEquals(defaultWidth, sheet.getColumnWidth(1));
+		assertEquals(255*256, sheet.getColumnWidth(2));
+	}
+
+	/**
+	 * Test method for {@link Excel.ColumnWidths}, for the strategies which do not measure the values.
+	 */
+	@Test
+	public final void testOtherWidths() {
+		Excel.ColumnWidths.Estimate fixed = Excel.ColumnWidths.fixed(300).estimate();
+		assertEquals(true, fixed.isFixed());
+		assertEquals(255, fixed.fixedWidth());
+		fixed.observe(0, 3, "value");
+		assertArrayEquals(new int[0], fixed.widths());
+		Excel.ColumnWidths.Estimate none = Excel.ColumnWidths.none().estimate();
+		none.observe(0, 3, "value");
+		assertArrayEquals(new int[0], none.widths());
+		//auto sizing is measured from the cells, except by a streaming workbook, which estimates from the first rows
+		Excel.ColumnWidths.Estimate auto = Excel.ColumnWidths.auto().estimate();
+		assertEquals(false, auto.sampled(0));
+		Excel.ColumnWidths.Estimate streamed = Excel.ColumnWidths.auto().withoutMeasuring().estimate();
+		assertEquals(true, streamed.sampled(99));
+		assertEquals(false, streamed.sampled(100));
+	}
+
+	/**
+	 * Test method for {@link Excel#columnWidths(Excel.ColumnWidths)} with a streaming workbook, which writes the
+	 * estimated widths into the sheet.
+	 * @throws IOException
+	 */
+	@Test
+	public final void testStreamedWidths() throws IOException {
+		File file = File.createTempFile("widths", ".xlsx");
+		file.deleteOnExit();
+		Excel streaming = Excel.createStreaming().columnWidths(Excel.ColumnWidths.estimated(1));
+		streaming.addSheet("s", Arrays.<List<?>>asList(Arrays.asList("name", null, 1.5), Arrays.asList("a much longer name")).iterator());
+		streaming.write(file);
+		streaming.close();
+		XSSFWorkbook wb = new XSSFWorkbook(file.getAbsolutePath());
+		Sheet sheet = wb.getSheet("s");
+		assertEquals(5*256, sheet.getColumnWidth(0));
+		assertEquals(4*256, sheet.getColumnWidth(2));
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package uk.co.terminological.tabular;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import uk.co.terminological.datatypes.NoMatchException;
+import uk.co.terminological.datatypes.Triple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author terminological
+ *
+ */
+public class ExcelReadTest {
+
+	//a workbook with a formula whose result has not been saved in the file, so reads as 0 unless it is evaluated
+	static File formulas() throws IOException {
+		File file = File.createTempFile("formulas", ".xlsx");
+		file.deleteOnExit();
+		XSSFWorkbook wb = new XSSFWorkbook();
+		Sheet sheet = wb.createSheet("s");
+		Row row = sheet.createRow(0);
+		row.createCell(0).setCellValue(2);
+		row.createCell(1).setCellFormula("A1*3");
+		try (OutputStream os = new FileOutputStream(file)) {
+			wb.write(os);
+		}
+		return file;
+	}
+
+	static String formula(Excel excel) {
+		return excel.getSheet("s").getContentsByRow().get(0L, 1);
+	}
+
+	/**
+	 * Test method for {@link Excel#formulas(Excel.Formulas)}, for the values read in each mode.
+	 * @throws IOException
+	 */
+	@Test
+	public final void testFormulas() throws IOException {
+		File file = formulas();
+		Excel excel = Excel.fromFile(file).formulas(Excel.Formulas.CACHED);
+		assertNull(excel.getEvaluator());
+		assertEquals("0.0", formula(excel));
+		excel.close();
+		excel = Excel.fromFile(file);
+		assertNotNull(excel.getEvaluator());
+		assertEquals("6.0", formula(excel));
+		excel.close();
+		//evaluated results are stored in the cells, so are read as the cached results
+		excel = Excel.fromFile(file).formulas(Excel.Formulas.EVALUATE_ALL);
+		assertNull(excel.getEvaluator());
+		assertEquals("6.0", formula(excel));
+		excel.formulas(Excel.Formulas.CACHED);
+		assertEquals("6.0", formula(excel));
+		excel.close();
+	}
+
+	/**
+	 * Test method for {@link Excel#formulas(Excel.Formulas)}, which must drop sheets read in another mode from the cache.
+	 * @throws IOException
+	 */
+	@Test
+	public final void testFormulasClearCache() throws IOException {
+		Excel excel = Excel.fromFile(formulas()).formulas(Excel.Formulas.CACHED);
+		assertEquals("0.0", formula(excel));
+		assertTrue(excel.getCacheBytes() > 0);
+		//the same mode keeps the cache
+		excel.formulas(Excel.Formulas.CACHED);
+		assertTrue(excel.getCacheBytes() > 0);
+		excel.formulas(Excel.Formulas.EVALUATE);
+		assertEquals(0L, excel.getCacheBytes());
+		assertEquals("6.0", formula(excel));
+		excel.close();
+	}
+
+	//a sheet with a table of two rows under each of two header rows
+	static File tables() throws IOException {
+		File file = File.createTempFile("tables", ".xlsx");
+		file.deleteOnExit();
+		XSSFWorkbook wb = new XSSFWorkbook();
+		Sheet sheet = wb.createSheet("s");
+		String[][] cells = {{"id", "a"}, {"x", "1"}, {"id", "b"}, {"y", "2"}};
+		for (int i=0; i<cells.length; i++) {
+			Row row = sheet.createRow(i);
+			for (int j=0; j<cells[i].length; j++) row.createCell(j).setCellValue(cells[i][j]);
+		}
+		try (OutputStream os = new FileOutputStream(file)) {
+			wb.write(os);
+		}
+		return file;
+	}
+
+	static List<String> triples(Stream<Triple<String,String,String>> stream) {
+		return stream.map(t -> t.getFirst()+"\t"+t.getSecond()+"\t"+t.getThird()).collect(Collectors.toList());
+	}
+
+	/**
+	 * Test method for {@link ExcelSheet#streamContents()}, which must not keep the labels it finds in the
+	 * configuration of the sheet, and releases a streamed sheet when the stream is closed before it is exhausted.
+	 * @throws IOException
+	 * @throws NoMatchException
+	 */
+	@Test
+	public final void testStreamContents() throws IOException, NoMatchException {
+		File file = tables();
+		for (Excel excel: Arrays.asList(Excel.fromFile(file), Excel.streamFromFile(file))) {
+			ExcelSheet sheet = excel.getSheet("s");
+			try (Stream<Triple<String,String,String>> stream = sheet.streamContents()) {
+				assertEquals(Arrays.asList("x\ta\t1", "id\ta\tb", "y\ta\t2"), triples(stream));
+			}
+			sheet.with().origin("A3");
+			try (Stream<Triple<String,String,String>> stream = sheet.streamContents()) {
+				assertEquals(Arrays.asList("y\tb\t2"), triples(stream));
+			}
+			for (int i=0; i<3; i++) {
+				try (Stream<Triple<String,String,String>> stream = sheet.streamContents()) {
+					assertTrue(stream.findFirst().isPresent());
+				}
+			}
+			assertEquals(Arrays.asList("y\tb\t2"), triples(sheet.getContents().stream()));
+			excel.close();
+		}
+	}
+
+	/**
+	 * Test method for {@link Excel#stream(java.util.function.Function, java.util.concurrent.Executor)}, which must
+	 * give the results in sheet order and convert no more sheets ahead of the stream than the executor has threads.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public final void testStreamSheets() throws IOException, InterruptedException {
+		File file = File.createTempFile("sheets", ".xlsx");
+		file.deleteOnExit();
+		XSSFWorkbook wb = new XSSFWorkbook();
+		for (int i=0; i<8; i++) {
+			Sheet sheet = wb.createSheet("s"+i);
+			for (int j=0; j<=i; j++) sheet.createRow(j).createCell(0).setCellValue("v"+j);
+		}
+		try (OutputStream os = new FileOutputStream(file)) {
+			wb.write(os);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for (Excel excel: Arrays.asList(Excel.fromFile(file), Excel.streamFromFile(file))) {
+				AtomicInteger started = new AtomicInteger();
+				List<String> names = new ArrayList<>();
+				excel.stream(sheet -> {
+					started.incrementAndGet();
+					return sheet.getContentsByRow();
+				}, executor).forEach(t -> {
+					//at most the sheets reached and the two after the current one have been started
+					try {
+						Thread.sleep(20);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					assertTrue(started.get() <= names.size() + 3);
+					assertEquals(names.size()+1, t.getSecond().getEntitySet().size());
+					names.add(t.getFirst());
+				});
+				assertEquals(Arrays.asList("s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7"), names);
+				Map<String,?> contents = excel.getContents(executor);
+				assertEquals(8, contents.size());
+				excel.close();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package uk.co.terminological.tabular;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.co.terminological.datatypes.Deferred;
+import uk.co.terminological.parser.ParserException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author terminological
+ *
+ */
+public class ParallelTokenizerTest {
+
+	//enclosed terminators and separators, doubled enclosures, and enclosure characters inside unenclosed fields
+	static final String CSV =
+			"id,text,note\n" +
+			"1,\"a\nb\",5\" screen\n" +
+			"2,x\"y,\"\"\"\"\n" +
+			"3,\"c\"\"\n\"\"d\",\"\n\"\n" +
+			"4,,\"\"\n" +
+			"5,it's 6\",\"e,\nf\"\n" +
+			"6,\"\n\n\n\",end\n";
+
+	static File file(String content) throws IOException {
+		File file = File.createTempFile("parallel", ".csv");
+		file.deleteOnExit();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	static List<List<String>> records(Iterator<Deferred<List<String>,ParserException>> tokenizer) throws ParserException {
+		List<List<String>> out = new ArrayList<>();
+		while (tokenizer.hasNext()) out.add(new ArrayList<>(tokenizer.next().get()));
+		return out;
+	}
+
+	/**
+	 * Test method for {@link ParallelTokenizer#ParallelTokenizer(File, java.nio.charset.Charset, String, String, String, String, int, long)}
+	 * with chunks small enough that enclosures, doubled enclosures and enclosed terminators straddle the chunk edges.
+	 * @throws IOException
+	 * @throws ParserException
+	 */
+	@Test
+	public final void testSmallChunks() throws IOException, ParserException {
+		File file = file(CSV);
+		List<List<String>> expected;
+		try (MappedTokenizer mapped = new MappedTokenizer(file, StandardCharsets.UTF_8, ",", "\"", null, null)) {
+			expected = records(mapped);
+		}
+		assertEquals(7, expected.size());
+		assertEquals("5\" screen", expected.get(1).get(2));
+		assertEquals("x\"y", expected.get(2).get(1));
+		assertEquals("\"", expected.get(2).get(2));
+		assertEquals("c\"\n\"d", expected.get(3).get(1));
+		for (long chunkSize = 1; chunkSize <= CSV.length(); chunkSize++) {
+			try (ParallelTokenizer parallel = new ParallelTokenizer(file, StandardCharsets.UTF_8, ",", "\"", null, null, 2, chunkSize)) {
+				assertEquals("chunk size "+chunkSize, expected, records(parallel));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link ParallelTokenizer#unordered(long)}, which must number the records as in the file.
+	 * @throws IOException
+	 * @throws ParserException
+	 */
+	@Test
+	public final void testUnorderedRecordNumbers() throws IOException, ParserException {
+		File file = file(CSV);
+		List<List<String>> expected;
+		try (MappedTokenizer mapped = new MappedTokenizer(file, StandardCharsets.UTF_8, ",", "\"", null, null)) {
+			expected = records(mapped);
+		}
+		for (long chunkSize = 1; chunkSize <= CSV.length(); chunkSize += 3) {
+			try (ParallelTokenizer parallel = new ParallelTokenizer(file, StandardCharsets.UTF_8, ",", "\"", null, null, 2, chunkSize)) {
+				List<List<String>> numbered = new ArrayList<>(expected);
+				parallel.unordered(0).forEachRemaining(line -> numbered.set(line.getKey().intValue(), line.getValue()));
+				assertEquals("chunk size "+chunkSize, expected, numbered);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package uk.co.terminological.tabular;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import uk.co.terminological.parser.DelimitedParserBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author terminological
+ *
+ */
+public class PipelinedTokenizerTest {
+
+	//a reader which gives one line and then blocks until it is closed, ignoring interrupts, as a socket may
+	static class BlockingReader extends Reader {
+
+		final CountDownLatch closed = new CountDownLatch(1);
+		boolean first = true;
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (first) {
+				first = false;
+				cbuf[off] = '1';
+				cbuf[off+1] = '\n';
+				return 2;
+			}
+			while (true) {
+				try {
+					closed.await();
+					throw new IOException("closed");
+				} catch (InterruptedException e) {
+					//ignored
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+	}
+
+	/**
+	 * Test method for {@link PipelinedTokenizer#close()}, which must release the stages and a consumer waiting
+	 * for records on another thread when the input blocks.
+	 * @throws Exception
+	 */
+	@Test(timeout = 10000)
+	public final void testCloseBlocked() throws Exception {
+		BlockingReader reader = new BlockingReader();
+		PipelinedTokenizer tokenizer = new PipelinedTokenizer(reader, DelimitedParserBuilder.machine(","), 1, "blocked");
+		CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(tokenizer::hasNext);
+		//the consumer cannot get the first line until the batch ends
+		Thread.sleep(100);
+		long start = System.nanoTime();
+		tokenizer.close();
+		assertTrue(System.nanoTime() - start < PipelinedTokenizer.CLOSE_MILLIS * 1000000L);
+		assertEquals(0, reader.closed.getCount());
+		assertEquals(false, waiting.get(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Test method for {@link PipelinedTokenizer#hasNext()}, which must throw an error from the input rather
+	 * than end the records early.
+	 * @throws Exception
+	 */
+	@Test(timeout = 10000)
+	public final void testInputError() throws Exception {
+		Reader reader = new Reader() {
+			@Override
+			public int read(char[] cbuf, int off, int len) {
+				throw new AssertionError("broken");
+			}
+			@Override
+			public void close() {}
+		};
+		try (PipelinedTokenizer tokenizer = new PipelinedTokenizer(reader, DelimitedParserBuilder.machine(","), 1, "broken")) {
+			tokenizer.hasNext();
+			fail("The error must be thrown to the consumer");
+		} catch (RuntimeException e) {
+			Throwable cause = e;
+			while (cause.getCause() != null) cause = cause.getCause();
+			assertEquals("broken", cause.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package uk.co.terminological.tabular;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author terminological
+ *
+ */
+public class SheetCacheTest {
+
+	//a sealed grid of one row of cells
+	static CellGrid grid(int cells) {
+		CellGrid grid = new CellGrid();
+		for (int i=0; i<cells; i++) grid.add(0, i, "x");
+		return grid.seal();
+	}
+
+	/**
+	 * Test method for {@link SheetCache#put(String, CellGrid)}, which must evict the least recently used sheets
+	 * when the budget is exceeded.
+	 */
+	@Test
+	public final void testEviction() {
+		CellGrid a = grid(10), b = grid(10), c = grid(10);
+		long size = a.estimatedBytes();
+		SheetCache cache = new SheetCache(size*2);
+		cache.put("a", a);
+		cache.put("b", b);
+		assertEquals(size*2, cache.getBytes());
+		//using a makes b the least recently used
+		assertSame(a, cache.get("a"));
+		cache.put("c", c);
+		assertEquals(size*2, cache.getBytes());
+		assertNull(cache.get("b"));
+		assertSame(a, cache.get("a"));
+		assertSame(c, cache.get("c"));
+		//replacing a sheet does not count it twice
+		cache.put("c", grid(10));
+		assertEquals(size*2, cache.getBytes());
+		assertNotNull(cache.get("a"));
+	}
+
+	/**
+	 * Test method for {@link SheetCache#setMaxBytes(long)} and sheets larger than the budget, which are not cached.
+	 */
+	@Test
+	public final void testBudget() {
+		CellGrid small = grid(1), large = grid(100);
+		SheetCache cache = new SheetCache(large.estimatedBytes() - 1);
+		cache.put("small", small);
+		cache.put("large", large);
+		assertNull(cache.get("large"));
+		assertSame(small, cache.get("small"));
+		assertEquals(small.estimatedBytes(), cache.getBytes());
+		cache.setMaxBytes(small.estimatedBytes() - 1);
+		assertNull(cache.get("small"));
+		assertEquals(0L, cache.getBytes());
+		cache.setMaxBytes(Long.MAX_VALUE);
+		cache.put("large", large);
+		cache.invalidate("large");
+		assertEquals(0L, cache.getBytes());
+		cache.put("small", small);
+		cache.clear();
+		assertNull(cache.get("small"));
+		assertEquals(0L, cache.getBytes());
+	}
+
+	/**
+	 * Test method for {@link Excel#cacheSize(long)}, with a sheet too large for the cache, which must be read
+	 * once however many views of the sheet are built.
+	 * @throws IOException
+	 */
+	@Test
+	public final void testUncachedSheet() throws IOException {
+		AtomicInteger reads = new AtomicInteger();
+		Excel excel = Excel.fromFile(ExcelReadTest.tables()).cacheSize(0).metrics(new MetricsListener() {
+			public void rows(String source, long rows) {reads.incrementAndGet();}
+		});
+		ExcelSheet sheet = excel.getSheet("s");
+		assertEquals(3, sheet.getContents().getEntitySet().size());
+		assertEquals(3, sheet.getTable().rowCount());
+		assertEquals(4, sheet.getContentsByRow().getEntitySet().size());
+		assertEquals(2, sheet.getContentsByColumn().getEntitySet().size());
+		assertEquals(1, reads.get());
+		assertEquals(0L, excel.getCacheBytes());
+		sheet.recalc();
+		assertEquals(2, reads.get());
+		excel.close();
+	}
+
+}
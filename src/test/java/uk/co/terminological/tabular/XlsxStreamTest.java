@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package uk.co.terminological.tabular;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.junit.Test;
+
+import uk.co.terminological.datatypes.Tuple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author terminological
+ *
+ */
+public class XlsxStreamTest {
+
+	static File xlsx = new File(XlsxStreamTest.class.getResource("/test.xlsx").getFile());
+
+	//the non empty cells of the rows as row, column and value
+	static List<String> cells(Stream<Tuple<Integer,Map<Integer,String>>> rows) {
+		return rows.flatMap(row -> row.getValue().entrySet().stream().map(cell -> row.getKey()+"\t"+cell.getKey()+"\t"+cell.getValue()))
+				.sorted().collect(Collectors.toList());
+	}
+
+	/**
+	 * Test method for {@link XlsxStreamReader#rows(String)}, which must give the same values as the workbook object model.
+	 * @throws IOException
+	 */
+	@Test
+	public final void testRows() throws IOException {
+		XlsxStreamReader reader = new XlsxStreamReader(xlsx);
+		Excel excel = Excel.fromFile(xlsx);
+		try {
+			assertEquals(excel.getSheetnames(), reader.getSheetnames());
+			for (String name: reader.getSheetnames()) {
+				List<String> expected = excel.getSheet(name).streamContentsByRow()
+						.map(t -> t.getFirst()+"\t"+t.getSecond()+"\t"+t.getThird()).sorted().collect(Collectors.toList());
+				try (Stream<Tuple<Integer,Map<Integer,String>>> rows = reader.rows(name)) {
+					assertEquals(expected, cells(rows));
+				}
+				//a stream closed before it is exhausted releases the sheet
+				try (Stream<Tuple<Integer,Map<Integer,String>>> rows = reader.rows(name)) {
+					assertTrue(rows.findFirst().isPresent());
+				}
+			}
+		} finally {
+			reader.close();
+			excel.close();
+		}
+	}
+
+	/**
+	 * Test method for {@link XlsxStreamWriter#addSheet(String, java.util.Iterator, Excel.ColumnWidths)} read back with
+	 * {@link XlsxStreamReader}. The shared strings table is empty, as strings are written inline. Values are written
+	 * as for {@link ExcelCell#setValue(Object)}, so integers are numbers, longs are strings and dates are unformatted numbers.
+	 * @throws IOException
+	 */
+	@Test
+	public final void testRoundTrip() throws IOException {
+		Date date = new Date(1262304000000L); //2010-01-01
+		List<List<?>> rows = Arrays.asList(
+				Arrays.asList("id", "name", "value", "flag", "date"),
+				Arrays.asList(1, "a & <b>", 1.5, true, date),
+				Arrays.asList(2, " padded ", -2L, false, null),
+				Collections.emptyList(),
+				Arrays.asList(null, null, null, null, "last"));
+		File file = File.createTempFile("stream", ".xlsx");
+		file.deleteOnExit();
+		XlsxStreamWriter writer = new XlsxStreamWriter();
+		try (OutputStream os = new FileOutputStream(file)) {
+			assertEquals(5L, writer.addSheet("data", rows.iterator(), Excel.ColumnWidths.estimated(2)));
+			writer.write(os);
+		} finally {
+			writer.close();
+		}
+		List<String> expected = Arrays.asList(
+				"0\t0\tid", "0\t1\tname", "0\t2\tvalue", "0\t3\tflag", "0\t4\tdate",
+				"1\t0\t1.0", "1\t1\ta & <b>", "1\t2\t1.5", "1\t3\ttrue", "1\t4\t"+new CellFormat(false).number(DateUtil.getExcelDate(date)),
+				"2\t0\t2.0", "2\t1\t padded ", "2\t2\t-2", "2\t3\tfalse",
+				"4\t4\tlast").stream().sorted().collect(Collectors.toList());
+		//with and without a shared strings part
+		for (File f: Arrays.asList(file, withoutSharedStrings(file))) {
+			XlsxStreamReader reader = new XlsxStreamReader(f);
+			try (Stream<Tuple<Integer,Map<Integer,String>>> read = reader.rows("data")) {
+				assertEquals(expected, cells(read));
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	//a copy of an xlsx file without its shared strings part or any references to it
+	static File withoutSharedStrings(File xlsx) throws IOException {
+		File out = File.createTempFile("noshared", ".xlsx");
+		out.deleteOnExit();
+		try (ZipFile zip = new ZipFile(xlsx); ZipOutputStream os = new ZipOutputStream(new FileOutputStream(out))) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.getName().equals("xl/sharedStrings.xml")) continue;
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try (InputStream is = zip.getInputStream(entry)) {
+					byte[] buffer = new byte[4096];
+					for (int n; (n = is.read(buffer)) > 0;) bytes.write(buffer, 0, n);
+				}
+				String xml = new String(bytes.toByteArray(), StandardCharsets.UTF_8)
+						.replaceAll("<Override[^>]*sharedStrings[^>]*/>", "")
+						.replaceAll("<Relationship[^>]*sharedStrings[^>]*/>", "");
+				os.putNextEntry(new ZipEntry(entry.getName()));
+				os.write(xml.getBytes(StandardCharsets.UTF_8));
+				os.closeEntry();
+			}
+		}
+		return out;
+	}
+
+}